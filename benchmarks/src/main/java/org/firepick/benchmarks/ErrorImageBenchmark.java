@@ -0,0 +1,33 @@
+package org.firepick.benchmarks;
+
+import org.firepick.FireREST;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FireREST error image rendering
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorImageBenchmark {
+  private final FireREST firerest = new FireREST();
+
+  @Benchmark
+  public BufferedImage errorImage() {
+    return firerest.errorImage("(No image)", "http://10.0.1.88:8080/firerest/cv/1/camera.jpg", "Connection refused");
+  }
+
+  /**
+   * getImage(null) returns the timestamped "(No image url)" error image without network access
+   */
+  @Benchmark
+  public BufferedImage timestampedErrorImage() {
+    return firerest.getImage(null);
+  }
+}
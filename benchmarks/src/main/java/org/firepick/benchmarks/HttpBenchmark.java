@@ -0,0 +1,99 @@
+package org.firepick.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.firepick.FireREST;
+import org.firepick.HttpPool;
+import org.firepick.JSONResult;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FireREST getJSON and getImage against an in-process HTTP server on the loopback interface.
+ * The pooled parameter compares keep-alive connection reuse with a new connection per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpBenchmark {
+  @Param({"true", "false"})
+  public boolean pooled;
+
+  private HttpServer server;
+  private FireREST firerest;
+  private URL jsonUrl;
+  private URL imageUrl;
+
+  @Setup
+  public void setup() throws IOException {
+    final byte[] json = JSONResultBenchmark.resource("config.json");
+    final byte[] jpeg = jpeg(800, 600);
+    System.setProperty("sun.net.httpserver.nodelay", "true"); // avoid Nagle/delayed-ACK stalls on keep-alive
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/firerest/config.json", new Responder("application/json", json));
+    server.createContext("/firerest/cv/1/camera.jpg", new Responder("image/jpeg", jpeg));
+    server.start();
+    String base = "http://127.0.0.1:" + server.getAddress().getPort();
+    jsonUrl = new URL(base + "/firerest/config.json");
+    imageUrl = new URL(base + "/firerest/cv/1/camera.jpg");
+    HttpPool pool = pooled ? new HttpPool() : new HttpPool(0, 0);
+    firerest = new FireREST().withHttpPool(pool).withJSONCache(null).withTimeout(2000);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  static byte[] jpeg(int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.GRAY);
+    g.fillOval(width / 4, height / 4, width / 2, height / 2);
+    g.dispose();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", bytes);
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public JSONResult getJSON() {
+    return firerest.getJSON(jsonUrl);
+  }
+
+  @Benchmark
+  public BufferedImage getImage() {
+    return firerest.getImage(imageUrl);
+  }
+
+  static class Responder implements HttpHandler {
+    private final String contentType;
+    private final byte[] body;
+
+    Responder(String contentType, byte[] body) {
+      this.contentType = contentType;
+      this.body = body;
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+      exchange.getResponseHeaders().add("Content-Type", contentType);
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  }
+}
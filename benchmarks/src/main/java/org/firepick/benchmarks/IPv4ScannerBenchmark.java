@@ -0,0 +1,43 @@
+package org.firepick.benchmarks;
+
+import org.firepick.IPv4Scanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IPv4Scanner address arithmetic
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IPv4ScannerBenchmark {
+  private InetAddress address;
+  private long longAddress;
+
+  @Setup
+  public void setup() throws UnknownHostException {
+    address = InetAddress.getByName("10.0.1.88");
+    longAddress = IPv4Scanner.asLongAddress(address);
+  }
+
+  @Benchmark
+  public long asLongAddress() {
+    return IPv4Scanner.asLongAddress(address);
+  }
+
+  @Benchmark
+  public InetAddress asInetAddress() throws UnknownHostException {
+    return IPv4Scanner.asInetAddress(longAddress);
+  }
+
+  @Benchmark
+  public InetAddress subnetAddress0() {
+    return IPv4Scanner.subnetAddress0(address, 24);
+  }
+}
@@ -0,0 +1,67 @@
+package org.firepick.benchmarks;
+
+import org.firepick.JSONPath;
+import org.firepick.JSONPathSet;
+import org.firepick.JSONResult;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deep JSONResult navigation of the parsed calcOffset model
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONNavigationBenchmark {
+  private JSONResult calcOffset;
+  private final JSONPath dxPath = JSONPath.compile("calcOffset-stage.channels.0.dx");
+  private final JSONPathSet stagePaths = JSONPathSet.compile(
+      "calcOffset-stage.channels.0.dx",
+      "calcOffset-stage.channels.0.dy",
+      "calcOffset-stage.channels.0.match",
+      "calcOffset-stage.rects.0.x",
+      "calcOffset-stage.rects.0.y",
+      "calcOffset-stage.rects.1.width",
+      "calcOffset-stage.rects.1.height");
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] bytes = JSONResultBenchmark.resource("calcOffset-model.json");
+    calcOffset = new JSONResult(new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public Integer navigateChain() {
+    return calcOffset.get("calcOffset-stage").get("channels").get("0").get("dx").getInt();
+  }
+
+  @Benchmark
+  public Integer navigatePath() {
+    return dxPath.eval(calcOffset).getInt();
+  }
+
+  @Benchmark
+  public void navigateChainMany(Blackhole bh) {
+    JSONResult stage = calcOffset.get("calcOffset-stage");
+    JSONResult channel = stage.get("channels").get("0");
+    bh.consume(channel.get("dx").getInt());
+    bh.consume(channel.get("dy").getInt());
+    bh.consume(channel.get("match").getDouble());
+    bh.consume(stage.get("rects").get(0).get("x").getInt());
+    bh.consume(stage.get("rects").get(0).get("y").getInt());
+    bh.consume(stage.get("rects").get(1).get("width").getInt());
+    bh.consume(stage.get("rects").get(1).get("height").getInt());
+  }
+
+  @Benchmark
+  public JSONResult[] navigatePathSet() {
+    return stagePaths.eval(calcOffset);
+  }
+}
@@ -0,0 +1,53 @@
+package org.firepick.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.firepick.JSONResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSONResult parsing of the test resource documents (see JSONNavigationBenchmark for navigation)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONResultBenchmark {
+  @Param({"calcOffset-model.json", "config.json"})
+  public String document;
+
+  private byte[] bytes;
+  private String text;
+
+  @Setup
+  public void setup() throws IOException {
+    bytes = resource(document);
+    text = new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static byte[] resource(String name) throws IOException {
+    InputStream in = JSONResultBenchmark.class.getResourceAsStream("/" + name);
+    try {
+      return IOUtils.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Benchmark
+  public JSONResult parseString() {
+    return new JSONResult(text);
+  }
+
+  @Benchmark
+  public JSONResult parseStream() {
+    return JSONResult.parse(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+  }
+}
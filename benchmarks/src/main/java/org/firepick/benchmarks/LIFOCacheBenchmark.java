@@ -0,0 +1,76 @@
+package org.firepick.benchmarks;
+
+import org.firepick.LIFOCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LIFOCache with one producer and 1, 2 or 4 consumer threads
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LIFOCacheBenchmark {
+  private final LIFOCache<Object> cache = new LIFOCache<Object>();
+  private final Object value = new Object();
+
+  @Benchmark
+  @Group("consumers1")
+  @GroupThreads(1)
+  public void post1() {
+    cache.post(value);
+  }
+
+  @Benchmark
+  @Group("consumers1")
+  @GroupThreads(1)
+  public Object get1() {
+    return cache.get();
+  }
+
+  @Benchmark
+  @Group("consumers2")
+  @GroupThreads(1)
+  public void post2() {
+    cache.post(value);
+  }
+
+  @Benchmark
+  @Group("consumers2")
+  @GroupThreads(2)
+  public Object get2() {
+    return cache.get();
+  }
+
+  @Benchmark
+  @Group("consumers4")
+  @GroupThreads(1)
+  public void post4() {
+    cache.post(value);
+  }
+
+  @Benchmark
+  @Group("consumers4")
+  @GroupThreads(4)
+  public Object get4() {
+    return cache.get();
+  }
+
+  @Benchmark
+  @Group("peek4")
+  @GroupThreads(1)
+  public void postPeek4() {
+    cache.post(value);
+  }
+
+  @Benchmark
+  @Group("peek4")
+  @GroupThreads(4)
+  public Object peek4() {
+    return cache.peek();
+  }
+}
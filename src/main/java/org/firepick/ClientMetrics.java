@@ -0,0 +1,384 @@
+package org.firepick;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * MetricsListener that aggregates latency histograms, byte counts, errors, timeouts and
+ * error image fallbacks per operation, per host (host:port) and per endpoint (URL path).
+ * Once a host and endpoint have been seen, recording takes no locks and allocates nothing.
+ * Register with JMX to monitor a running client, e.g.:
+ * <pre>
+ * ClientMetrics metrics = ClientMetrics.getDefault();
+ * metrics.register("camera");
+ * FireREST firerest = new FireREST().withMetrics(metrics);
+ * </pre>
+ */
+public class ClientMetrics implements MetricsListener, ClientMetricsMBean {
+  private static final ClientMetrics defaultMetrics = new ClientMetrics();
+
+  private final Stats total = new Stats();
+  private final Stats[] operations = new Stats[Operation.values().length];
+  private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+  private final AtomicLong scans = new AtomicLong();
+  private final AtomicLong scanProbes = new AtomicLong();
+  private final AtomicLong scanHosts = new AtomicLong();
+  private final Histogram scanTime = new Histogram();
+
+  public ClientMetrics() {
+    for (int i = 0; i < operations.length; i++) {
+      operations[i] = new Stats();
+    }
+  }
+
+  /**
+   * Return metrics shared by clients that do not need separate metrics
+   */
+  public static ClientMetrics getDefault() {
+    return defaultMetrics;
+  }
+
+  /**
+   * Register with the platform MBean server as org.firepick:type=ClientMetrics,name=...
+   *
+   * @return registered name
+   */
+  public ObjectName register(String name) {
+    try {
+      ObjectName objectName = new ObjectName("org.firepick:type=ClientMetrics,name=" + ObjectName.quote(name));
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (!server.isRegistered(objectName)) {
+        server.registerMBean(this, objectName);
+      }
+      return objectName;
+    } catch (JMException e) {
+      throw new FireRESTException("Could not register ClientMetrics " + name, e);
+    }
+  }
+
+  @Override
+  public void request(Operation operation, URL url, long nsLatency, long bytes, Outcome outcome) {
+    long usLatency = TimeUnit.NANOSECONDS.toMicros(nsLatency);
+    total.request(usLatency, bytes, outcome);
+    operations[operation.ordinal()].request(usLatency, bytes, outcome);
+    if (url != null) {
+      Host host = host(url);
+      host.stats.request(usLatency, bytes, outcome);
+      host.endpoint(url).request(usLatency, bytes, outcome);
+    }
+  }
+
+  @Override
+  public void decoded(URL url, long nsDecode) {
+    long usDecode = TimeUnit.NANOSECONDS.toMicros(nsDecode);
+    total.decodeTime.record(usDecode);
+    Host host = host(url);
+    host.stats.decodeTime.record(usDecode);
+    host.endpoint(url).decodeTime.record(usDecode);
+  }
+
+  @Override
+  public void errorImage(URL url) {
+    total.errorImages.incrementAndGet();
+    if (url != null) {
+      Host host = host(url);
+      host.stats.errorImages.incrementAndGet();
+      host.endpoint(url).errorImages.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void scanned(long probes, int hosts, long nsElapsed) {
+    scans.incrementAndGet();
+    scanProbes.addAndGet(probes);
+    scanHosts.addAndGet(hosts);
+    scanTime.record(TimeUnit.NANOSECONDS.toMicros(nsElapsed));
+  }
+
+  private Host host(URL url) {
+    String authority = url.getAuthority(); // cached by URL
+    if (authority == null) {
+      authority = url.getProtocol();
+    }
+    Host host = hosts.get(authority);
+    if (host == null) {
+      Host newHost = new Host();
+      host = hosts.putIfAbsent(authority, newHost);
+      if (host == null) {
+        host = newHost;
+      }
+    }
+    return host;
+  }
+
+  /**
+   * Return statistics of all requests
+   */
+  public Stats getStats() {
+    return total;
+  }
+
+  /**
+   * Return statistics of the given operation
+   */
+  public Stats getStats(Operation operation) {
+    return operations[operation.ordinal()];
+  }
+
+  /**
+   * Return statistics of the given host or null
+   *
+   * @param host host:port, e.g., "10.0.0.7:8080"
+   */
+  public Stats getStats(String host) {
+    Host result = hosts.get(host);
+    return result == null ? null : result.stats;
+  }
+
+  /**
+   * Return statistics of the given endpoint or null
+   *
+   * @param host host:port, e.g., "10.0.0.7:8080"
+   * @param path URL path, e.g., "/firerest/config.json"
+   */
+  public Stats getStats(String host, String path) {
+    Host result = hosts.get(host);
+    return result == null ? null : result.endpoints.get(path);
+  }
+
+  public Histogram getScanTime() {
+    return scanTime;
+  }
+
+  @Override
+  public long getRequests() {
+    return total.requests.get();
+  }
+
+  @Override
+  public long getErrors() {
+    return total.errors.get();
+  }
+
+  @Override
+  public long getTimeouts() {
+    return total.timeouts.get();
+  }
+
+  @Override
+  public long getAborts() {
+    return total.aborts.get();
+  }
+
+  @Override
+  public long getBytes() {
+    return total.bytes.get();
+  }
+
+  @Override
+  public long getErrorImages() {
+    return total.errorImages.get();
+  }
+
+  @Override
+  public double getLatencyMean() {
+    return total.latency.getMean();
+  }
+
+  @Override
+  public long getLatencyP50() {
+    return total.latency.getPercentile(0.5);
+  }
+
+  @Override
+  public long getLatencyP99() {
+    return total.latency.getPercentile(0.99);
+  }
+
+  @Override
+  public long getLatencyMax() {
+    return total.latency.getMax();
+  }
+
+  @Override
+  public long getDecodeP50() {
+    return total.decodeTime.getPercentile(0.5);
+  }
+
+  @Override
+  public long getDecodeP99() {
+    return total.decodeTime.getPercentile(0.99);
+  }
+
+  @Override
+  public long getScans() {
+    return scans.get();
+  }
+
+  @Override
+  public long getScanProbes() {
+    return scanProbes.get();
+  }
+
+  @Override
+  public long getScanHosts() {
+    return scanHosts.get();
+  }
+
+  @Override
+  public long getScanP50() {
+    return scanTime.getPercentile(0.5);
+  }
+
+  @Override
+  public String[] getHosts() {
+    return new TreeMap<String, Host>(hosts).keySet().toArray(new String[0]);
+  }
+
+  @Override
+  public String getSummary() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("total ").append(total).append('\n');
+    for (Operation operation : Operation.values()) {
+      Stats stats = getStats(operation);
+      if (stats.requests.get() > 0) {
+        sb.append(operation).append(' ').append(stats).append('\n');
+      }
+    }
+    for (Map.Entry<String, Host> host : new TreeMap<String, Host>(hosts).entrySet()) {
+      sb.append(host.getKey()).append(' ').append(host.getValue().stats).append('\n');
+      for (Map.Entry<String, Stats> endpoint : new TreeMap<String, Stats>(host.getValue().endpoints).entrySet()) {
+        sb.append(host.getKey()).append(endpoint.getKey()).append(' ').append(endpoint.getValue()).append('\n');
+      }
+    }
+    if (scans.get() > 0) {
+      sb.append("scans n:").append(scans.get()).append(" probes:").append(scanProbes.get())
+          .append(" hosts:").append(scanHosts.get()).append(" us ").append(scanTime).append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public void reset() {
+    total.reset();
+    for (Stats stats : operations) {
+      stats.reset();
+    }
+    hosts.clear();
+    scans.set(0);
+    scanProbes.set(0);
+    scanHosts.set(0);
+    scanTime.reset();
+  }
+
+  /**
+   * Request statistics. Latency and decode time histograms are in microseconds.
+   */
+  public static class Stats {
+    final Histogram latency = new Histogram();
+    final Histogram decodeTime = new Histogram();
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong aborts = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong errorImages = new AtomicLong();
+
+    void request(long usLatency, long nBytes, Outcome outcome) {
+      requests.incrementAndGet();
+      latency.record(usLatency);
+      if (nBytes > 0) {
+        bytes.addAndGet(nBytes);
+      }
+      switch (outcome) {
+        case ERROR:
+          errors.incrementAndGet();
+          break;
+        case TIMEOUT:
+          timeouts.incrementAndGet();
+          break;
+        case ABORTED:
+          aborts.incrementAndGet();
+          break;
+        default:
+          break;
+      }
+    }
+
+    void reset() {
+      latency.reset();
+      decodeTime.reset();
+      requests.set(0);
+      errors.set(0);
+      timeouts.set(0);
+      aborts.set(0);
+      bytes.set(0);
+      errorImages.set(0);
+    }
+
+    public Histogram getLatency() {
+      return latency;
+    }
+
+    public Histogram getDecodeTime() {
+      return decodeTime;
+    }
+
+    public long getRequests() {
+      return requests.get();
+    }
+
+    public long getErrors() {
+      return errors.get();
+    }
+
+    public long getTimeouts() {
+      return timeouts.get();
+    }
+
+    public long getAborts() {
+      return aborts.get();
+    }
+
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    public long getErrorImages() {
+      return errorImages.get();
+    }
+
+    @Override
+    public String toString() {
+      return "requests:" + requests.get() + " errors:" + errors.get() + " timeouts:" + timeouts.get()
+          + " aborts:" + aborts.get() + " bytes:" + bytes.get() + " errorImages:" + errorImages.get()
+          + " latency us " + latency + (decodeTime.getCount() == 0 ? "" : " decode us " + decodeTime);
+    }
+  }
+
+  private static class Host {
+    final Stats stats = new Stats();
+    final ConcurrentHashMap<String, Stats> endpoints = new ConcurrentHashMap<String, Stats>();
+
+    Stats endpoint(URL url) {
+      String path = url.getPath(); // cached by URL
+      Stats result = endpoints.get(path);
+      if (result == null) {
+        Stats newStats = new Stats();
+        result = endpoints.putIfAbsent(path, newStats);
+        if (result == null) {
+          result = newStats;
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package org.firepick;
+
+/**
+ * JMX view of ClientMetrics. Latencies are in microseconds.
+ */
+public interface ClientMetricsMBean {
+
+  long getRequests();
+
+  long getErrors();
+
+  long getTimeouts();
+
+  long getAborts();
+
+  long getBytes();
+
+  long getErrorImages();
+
+  double getLatencyMean();
+
+  long getLatencyP50();
+
+  long getLatencyP99();
+
+  long getLatencyMax();
+
+  long getDecodeP50();
+
+  long getDecodeP99();
+
+  long getScans();
+
+  long getScanProbes();
+
+  long getScanHosts();
+
+  long getScanP50();
+
+  /**
+   * Return host:port of every host with recorded requests
+   */
+  String[] getHosts();
+
+  /**
+   * Return one line of statistics per operation, host and endpoint
+   */
+  String getSummary();
+
+  void reset();
+
+}
@@ -0,0 +1,18 @@
+package org.firepick;
+
+/**
+ * Receives changes of a FireREST service configuration from ConfigWatcher
+ */
+public interface ConfigListener {
+
+  /**
+   * Called for each changed subtree at or below the watched path.
+   * If an ancestor of the watched path changed, this is called once with the watched path.
+   *
+   * @param path dotted path of the changed subtree, e.g., "cv.camera_map.1.profile_map.gray"
+   * @param before previous value, which isNull() if it was added
+   * @param after new value, which isNull() if it was removed
+   */
+  void configChanged(String path, JSONResult before, JSONResult after);
+
+}
@@ -0,0 +1,179 @@
+package org.firepick;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches the configuration of a FireREST service and notifies listeners of the subtrees that
+ * changed, so that consumers only rebuild what actually changed, e.g.:
+ * <pre>
+ * ConfigWatcher watcher = new ConfigWatcher(resolver)
+ *     .watch("cv.cve_map", cveListener)
+ *     .watch("cv.camera_map", cameraListener);
+ * watcher.start(5000);
+ * </pre>
+ * Each poll re-fetches config.json with ServiceResolver.refresh(), which revalidates it with
+ * the JSON cache, and compares it with the previous configuration using JSONDiff.
+ * The first successful poll notifies every listener, since the configuration was previously unknown.
+ */
+public class ConfigWatcher {
+  static Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+  private final ServiceResolver resolver;
+  private final CopyOnWriteArrayList<Watch> watches = new CopyOnWriteArrayList<Watch>();
+  private volatile JSONResult config = new JSONResult(null);
+  private final Object threadLock = new Object(); // guards start() and stop() without waiting for poll()
+  private volatile Thread thread; // polling thread, which exits once it is no longer this thread
+
+  public ConfigWatcher(ServiceResolver resolver) {
+    if (resolver == null) {
+      throw new NullPointerException("resolver cannot be null");
+    }
+    this.resolver = resolver;
+  }
+
+  /**
+   * Notify the given listener of changes at or below the given dotted path
+   *
+   * @param path dotted path of watched subtree, e.g., "cv.cve_map", or "" for the entire configuration
+   * @return this watcher for fluent method chaining
+   */
+  public ConfigWatcher watch(String path, ConfigListener listener) {
+    if (listener == null) {
+      throw new NullPointerException("listener cannot be null");
+    }
+    watches.add(new Watch(JSONPath.compile(path), listener));
+    return this;
+  }
+
+  /**
+   * Stop notifying the given listener
+   */
+  public void unwatch(ConfigListener listener) {
+    for (Watch watch : watches) {
+      if (watch.listener == listener) {
+        watches.remove(watch);
+      }
+    }
+  }
+
+  /**
+   * Return the most recently polled configuration, which isNull() before the first successful poll
+   */
+  public JSONResult getConfig() {
+    return config;
+  }
+
+  /**
+   * Fetch the configuration now and notify listeners of changes
+   *
+   * @return changed paths, which are empty if the configuration did not change
+   * @throws FireRESTException if the configuration could not be fetched
+   */
+  public synchronized List<String> poll() {
+    JSONResult after = resolver.refresh();
+    JSONResult before = config;
+    if (after.equals(before)) {
+      return Collections.emptyList();
+    }
+    List<String> changes = JSONDiff.diff(before, after);
+    config = after;
+    logger.debug("{} changed {}", resolver.getURL(), changes);
+    for (Watch watch : watches) {
+      watch.notify(changes, before, after);
+    }
+    return changes;
+  }
+
+  /**
+   * Poll the configuration in a background thread
+   *
+   * @param msInterval milliseconds between polls
+   */
+  public void start(final long msInterval) {
+    if (msInterval <= 0) {
+      throw new FireRESTException("Expected msInterval > 0");
+    }
+    synchronized (threadLock) {
+      stop();
+      thread = new Thread(new Runnable() {
+        public void run() {
+          while (thread == Thread.currentThread()) {
+            try {
+              poll();
+            } catch (RuntimeException e) {
+              // keep previous configuration
+              logger.warn("Could not poll {}: {}", resolver.getURL(), e.getMessage());
+            }
+            try {
+              Thread.sleep(msInterval);
+            } catch (InterruptedException e) {
+              // stop() or restarted
+            }
+          }
+        }
+      }, "ConfigWatcher " + resolver.getURL());
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stop polling. A poll in progress is not waited for.
+   */
+  public void stop() {
+    synchronized (threadLock) {
+      Thread polling = thread;
+      thread = null;
+      if (polling != null) {
+        polling.interrupt();
+      }
+    }
+  }
+
+  public boolean isRunning() {
+    return thread != null;
+  }
+
+  /**
+   * Listener of one watched path
+   */
+  private static class Watch {
+    final JSONPath path;
+    final String prefix;
+    final ConfigListener listener;
+
+    Watch(JSONPath path, ConfigListener listener) {
+      this.path = path;
+      this.prefix = path.toString();
+      this.listener = listener;
+    }
+
+    void notify(List<String> changes, JSONResult before, JSONResult after) {
+      for (String change : changes) {
+        if (prefix.length() == 0 || change.equals(prefix) || change.startsWith(prefix + ".")) {
+          JSONPath changePath = JSONPath.compile(change);
+          call(change, changePath.eval(before), changePath.eval(after));
+        } else if (change.length() == 0 || prefix.startsWith(change + ".")) {
+          JSONResult beforeValue = path.eval(before);
+          JSONResult afterValue = path.eval(after);
+          if (!beforeValue.equals(afterValue)) {
+            call(prefix, beforeValue, afterValue);
+          }
+          return; // the watched subtree was replaced as a whole
+        }
+      }
+    }
+
+    private void call(String change, JSONResult before, JSONResult after) {
+      try {
+        listener.configChanged(change, before, after);
+      } catch (RuntimeException e) {
+        logger.warn("ConfigListener failed for {}: {}", change, e.toString());
+      }
+    }
+  }
+}
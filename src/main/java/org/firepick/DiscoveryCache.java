@@ -0,0 +1,256 @@
+package org.firepick;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent record of discovered FireREST services. ServiceResolver.discover() returns
+ * cached services immediately and only sweeps the network when the cache has no service
+ * seen within the TTL. The cache file is JSON, e.g.:
+ * <pre>
+ * {"services":[{"address":"10.0.0.7","url":"http://10.0.0.7:8080/firerest/config.json",
+ *   "version":"0.1","lastSeen":1414000000000}]}
+ * </pre>
+ */
+public class DiscoveryCache {
+  static Logger logger = LoggerFactory.getLogger(DiscoveryCache.class);
+  static final long DEFAULT_TTL = TimeUnit.DAYS.toMillis(1);
+  private static DiscoveryCache defaultCache;
+
+  private final File file;
+  private final long msTTL;
+  private LinkedHashMap<String, Entry> entries;
+
+  /**
+   * @param file cache file. The file need not exist.
+   */
+  public DiscoveryCache(File file) {
+    this(file, DEFAULT_TTL);
+  }
+
+  private DiscoveryCache(File file, long msTTL) {
+    if (file == null) {
+      throw new NullPointerException("file cannot be null");
+    }
+    this.file = file;
+    this.msTTL = msTTL;
+  }
+
+  /**
+   * Return cache stored in ~/.firerest/discovery.json
+   */
+  public static synchronized DiscoveryCache getDefault() {
+    if (defaultCache == null) {
+      File dir = new File(System.getProperty("user.home"), ".firerest");
+      defaultCache = new DiscoveryCache(new File(dir, "discovery.json"));
+    }
+    return defaultCache;
+  }
+
+  /**
+   * Return cache that ignores services not seen for the given time
+   *
+   * @param msTTL maximum age of a cached service in milliseconds
+   */
+  public DiscoveryCache withTTL(long msTTL) {
+    if (msTTL < 0) {
+      throw new FireRESTException("Expected msTTL >= 0");
+    }
+    return new DiscoveryCache(file, msTTL);
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getTTL() {
+    return msTTL;
+  }
+
+  /**
+   * Return number of cached services, including stale services
+   */
+  public synchronized int size() {
+    return load().size();
+  }
+
+  /**
+   * Return true if the cache has no service seen within the TTL
+   */
+  public synchronized boolean isStale() {
+    return getResolvers().isEmpty();
+  }
+
+  /**
+   * Return resolvers for cached services seen within the TTL.
+   * The resolvers have not been resolved.
+   */
+  public synchronized List<ServiceResolver> getResolvers() {
+    List<ServiceResolver> result = new ArrayList<ServiceResolver>();
+    long msOldest = System.currentTimeMillis() - msTTL;
+    for (Entry entry : load().values()) {
+      if (entry.lastSeen >= msOldest) {
+        try {
+          result.add(new ServiceResolver(InetAddress.getByName(entry.address), new URL(entry.url)));
+        } catch (IOException e) {
+          logger.warn("Ignoring cached service {}: {}", entry.url, e.getMessage());
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return cached FireREST version of the service with the given address or null
+   */
+  public synchronized String getVersion(InetAddress address) {
+    Entry entry = load().get(address.getHostAddress());
+    return entry == null ? null : entry.version;
+  }
+
+  /**
+   * Record a resolved service as seen now
+   */
+  synchronized void seen(ServiceResolver resolver) {
+    JSONResult config = resolver.getConfig();
+    if (config == null || resolver.getAddress() == null || resolver.getURL() == null) {
+      return;
+    }
+    Entry entry = new Entry();
+    entry.address = resolver.getAddress().getHostAddress();
+    entry.url = resolver.getURL().toExternalForm();
+    entry.version = config.get("FireREST").get("version").getString();
+    entry.lastSeen = System.currentTimeMillis();
+    load().put(entry.address, entry);
+  }
+
+  /**
+   * Remove a service that no longer responds
+   */
+  synchronized void forget(ServiceResolver resolver) {
+    if (resolver.getAddress() != null) {
+      load().remove(resolver.getAddress().getHostAddress());
+    }
+  }
+
+  /**
+   * Remove all services in the given address ranges, e.g., before recording a sweep of those ranges
+   */
+  synchronized void forget(List<IPv4Range> ranges) {
+    Iterator<Entry> entries = load().values().iterator();
+    while (entries.hasNext()) {
+      try {
+        if (IPv4Range.contains(ranges, InetAddress.getByName(entries.next().address))) {
+          entries.remove();
+        }
+      } catch (IOException e) {
+        entries.remove(); // not an address literal
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    load().clear();
+  }
+
+  /**
+   * Write cached services to the cache file. The file is replaced atomically where supported.
+   */
+  public synchronized void save() {
+    List<Map<String, Object>> services = new ArrayList<Map<String, Object>>();
+    for (Entry entry : load().values()) {
+      Map<String, Object> service = new LinkedHashMap<String, Object>();
+      service.put("address", entry.address);
+      service.put("url", entry.url);
+      service.put("version", entry.version);
+      service.put("lastSeen", entry.lastSeen);
+      services.add(service);
+    }
+    Map<String, Object> json = new LinkedHashMap<String, Object>();
+    json.put("services", services);
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new FireRESTException("Could not create " + dir);
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+      try {
+        JSONValue.writeJSONString(json, writer);
+      } finally {
+        writer.close();
+      }
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        if (!tmp.renameTo(file)) {
+          throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+      }
+    } catch (IOException e) {
+      throw new FireRESTException(e);
+    }
+  }
+
+  private LinkedHashMap<String, Entry> load() {
+    if (entries != null) {
+      return entries;
+    }
+    entries = new LinkedHashMap<String, Entry>();
+    if (!file.exists()) {
+      return entries;
+    }
+    try {
+      InputStream is = new FileInputStream(file);
+      try {
+        Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
+        JSONObject json = (JSONObject) new JSONParser().parse(reader);
+        JSONArray services = (JSONArray) json.get("services");
+        for (Object obj : services) {
+          JSONObject service = (JSONObject) obj;
+          Entry entry = new Entry();
+          entry.address = (String) service.get("address");
+          entry.url = (String) service.get("url");
+          entry.version = (String) service.get("version");
+          entry.lastSeen = ((Number) service.get("lastSeen")).longValue();
+          entries.put(entry.address, entry);
+        }
+      } finally {
+        is.close();
+      }
+    } catch (Exception e) {
+      logger.warn("Ignoring unreadable discovery cache {}: {}", file, e.getMessage());
+      entries.clear();
+    }
+    return entries;
+  }
+
+  static class Entry {
+    String address;
+    String url;
+    String version;
+    long lastSeen;
+  }
+}
@@ -0,0 +1,15 @@
+package org.firepick;
+
+/**
+ * Receives FireREST services from ServiceResolver.discover() as soon as they are resolved.
+ */
+public interface DiscoveryListener {
+
+  /**
+   * Called for each resolved FireREST service
+   *
+   * @param resolver resolver with service configuration
+   */
+  void discovered(ServiceResolver resolver);
+
+}
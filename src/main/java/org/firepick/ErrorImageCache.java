@@ -0,0 +1,163 @@
+package org.firepick;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded cache of rendered FireREST error images keyed by text lines and image size.
+ * Each call returns a copy of the cached rendering, so callers never share a mutable image.
+ * An optional overlay line (e.g., a timestamp) is drawn on the copy in the first line position,
+ * which lets frequently changing text reuse the cached rendering of the remaining lines.
+ */
+class ErrorImageCache {
+  private static final int PADDING = 20;
+  private static final Color BACKGROUND = new Color(64, 32, 32);
+  private static final Color FOREGROUND = new Color(255, 64, 64);
+
+  private final long maxPixels;
+  private long pixels;
+  private final LinkedHashMap<Key, Rendering> renderings = new LinkedHashMap<Key, Rendering>(16, 0.75f, true);
+
+  /**
+   * @param maxPixels maximum number of pixels of all cached renderings
+   */
+  ErrorImageCache(long maxPixels) {
+    this.maxPixels = maxPixels;
+  }
+
+  /**
+   * Return a red image with the given text auto-sized to fit the given dimensions
+   *
+   * @param overlay text drawn on a copy of the cached rendering in the first line position or null
+   * @param lines one or more lines of text that follow the overlay
+   * @return new image
+   */
+  BufferedImage render(int width, int height, String overlay, String... lines) {
+    Key key = new Key(width, height, overlay == null ? -1 : overlay.length(), lines);
+    Rendering rendering = lookup(key);
+    if (rendering == null) {
+      rendering = new Rendering(key);
+      store(key, rendering);
+    }
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] src = ((DataBufferInt) rendering.image.getRaster().getDataBuffer()).getData();
+    int[] dst = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    System.arraycopy(src, 0, dst, 0, src.length);
+    if (overlay != null) {
+      Graphics2D g = image.createGraphics();
+      g.setColor(FOREGROUND);
+      g.setFont(rendering.font);
+      g.drawString(overlay, PADDING, rendering.y0);
+      g.dispose();
+    }
+    return image;
+  }
+
+  synchronized int size() {
+    return renderings.size();
+  }
+
+  private synchronized Rendering lookup(Key key) {
+    return renderings.get(key);
+  }
+
+  private synchronized void store(Key key, Rendering rendering) {
+    long imagePixels = (long) key.width * key.height;
+    if (imagePixels > maxPixels || renderings.containsKey(key)) {
+      return;
+    }
+    Iterator<Rendering> it = renderings.values().iterator();
+    while (pixels + imagePixels > maxPixels && it.hasNext()) {
+      Rendering eldest = it.next();
+      pixels -= (long) eldest.image.getWidth() * eldest.image.getHeight();
+      it.remove();
+    }
+    renderings.put(key, rendering);
+    pixels += imagePixels;
+  }
+
+  /**
+   * Error image text without the overlay
+   */
+  private static class Key {
+    final int width;
+    final int height;
+    final int overlayLength;
+    final String[] lines;
+    final int hash;
+
+    Key(int width, int height, int overlayLength, String[] lines) {
+      this.width = width;
+      this.height = height;
+      this.overlayLength = overlayLength;
+      this.lines = lines.clone();
+      this.hash = 31 * (31 * (31 * width + height) + overlayLength) + Arrays.hashCode(this.lines);
+    }
+
+    @Override
+    public boolean equals(Object thatObj) {
+      if (!(thatObj instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) thatObj;
+      return width == that.width && height == that.height && overlayLength == that.overlayLength &&
+          Arrays.equals(lines, that.lines);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Immutable rendering of error text with the layout needed to draw the overlay
+   */
+  private static class Rendering {
+    final BufferedImage image;
+    final Font font;
+    final float y0;
+
+    Rendering(Key key) {
+      int width = key.width;
+      int height = key.height;
+      boolean hasOverlay = key.overlayLength >= 0;
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = image.createGraphics();
+      g.setBackground(BACKGROUND);
+      g.setColor(FOREGROUND);
+      g.clearRect(0, 0, width, height);
+      int maxLen = Math.max(0, key.overlayLength);
+      for (String line : key.lines) {
+        if (line != null) {
+          for (String innerLine : line.split("\n")) {
+            maxLen = Math.max(innerLine.length(), maxLen);
+          }
+        }
+      }
+      int nLines = key.lines.length + (hasOverlay ? 1 : 0);
+      float sizeForWidth = 1.8f * (width - PADDING - PADDING) / maxLen; // should use TextLayout
+      float sizeForHeight = (height - PADDING - PADDING) / nLines;
+      float lineHeight = Math.min(80, Math.max(12, Math.min(sizeForWidth, sizeForHeight)));
+      float fontSize = 0.8f * lineHeight;
+      font = g.getFont().deriveFont(fontSize);
+      g.setFont(font);
+      y0 = fontSize + PADDING;
+      float y = hasOverlay ? y0 + lineHeight : y0;
+      for (String line : key.lines) {
+        if (line != null) {
+          g.drawString(line, PADDING, y);
+          y += lineHeight;
+        }
+      }
+      g.dispose();
+    }
+  }
+
+}
@@ -3,39 +3,254 @@ package org.firepick;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Scanner;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * FireREST Java client. Fluent API for traversing JSON responses from FireREST web services.
  */
 public class FireREST {
   static Logger logger = LoggerFactory.getLogger(FireREST.class);
-  private int imageWidth = 800;
-  private int imageHeight = 200;
-  private BufferedImage imageBuffer;
+  private static ExecutorService defaultExecutor;
+  private static ExecutorService batchExecutor;
+  private static ScheduledThreadPoolExecutor timeoutScheduler;
+  private static final ErrorImageCache errorImages = new ErrorImageCache(4 * 1024 * 1024);
+  private volatile int imageWidth = 800;
+  private volatile int imageHeight = 200;
   private int msTimeout = 500;
-  private HashMap<URL, LIFOCache<BufferedImage>> imageMap = new HashMap<URL, LIFOCache<BufferedImage>>();
+  private HttpPool httpPool = HttpPool.getDefault();
+  private Executor executor;
+  private JSONCache jsonCache = JSONCache.getDefault();
+  private ImageDecoder imageDecoder = ImageDecoder.getDefault();
+  private RTTEstimator rttEstimator;
+  private boolean hedging;
+  private MetricsListener metrics;
 
   public FireREST() {
   }
 
-  private FireREST(FireREST firerest, int msTimeout) {
-    this.msTimeout = msTimeout;
+  private FireREST(FireREST firerest) {
+    this.imageWidth = firerest.imageWidth;
+    this.imageHeight = firerest.imageHeight;
+    this.msTimeout = firerest.msTimeout;
+    this.httpPool = firerest.httpPool;
+    this.executor = firerest.executor;
+    this.jsonCache = firerest.jsonCache;
+    this.imageDecoder = firerest.imageDecoder;
+    this.rttEstimator = firerest.rttEstimator;
+    this.hedging = firerest.hedging;
+    this.metrics = firerest.metrics;
   }
 
   public FireREST withTimeout(int msTimeout) {
-    return new FireREST(this, msTimeout);
+    FireREST result = new FireREST(this);
+    result.msTimeout = msTimeout;
+    return result;
+  }
+
+  /**
+   * Return a FireREST client that uses the given keep-alive connection pool instead of HttpPool.getDefault()
+   */
+  public FireREST withHttpPool(HttpPool httpPool) {
+    if (httpPool == null) {
+      throw new NullPointerException("httpPool cannot be null");
+    }
+    FireREST result = new FireREST(this);
+    result.httpPool = httpPool;
+    return result;
+  }
+
+  public HttpPool getHttpPool() {
+    return httpPool;
+  }
+
+  /**
+   * Return a FireREST client that revalidates JSON responses with the given cache
+   * instead of JSONCache.getDefault()
+   *
+   * @param jsonCache cache of parsed JSON responses or null to always download and parse
+   */
+  public FireREST withJSONCache(JSONCache jsonCache) {
+    FireREST result = new FireREST(this);
+    result.jsonCache = jsonCache;
+    return result;
+  }
+
+  public JSONCache getJSONCache() {
+    return jsonCache;
+  }
+
+  /**
+   * Return a FireREST client that decodes images with the given decoder instead of ImageDecoder.getDefault().
+   * E.g., withImageDecoder(ImageDecoder.getDefault().withSubsampling(4, 4)) retrieves reduced previews.
+   */
+  public FireREST withImageDecoder(ImageDecoder imageDecoder) {
+    if (imageDecoder == null) {
+      throw new NullPointerException("imageDecoder cannot be null");
+    }
+    FireREST result = new FireREST(this);
+    result.imageDecoder = imageDecoder;
+    return result;
+  }
+
+  public ImageDecoder getImageDecoder() {
+    return imageDecoder;
+  }
+
+  /**
+   * Return a FireREST client that derives the connect/read timeout of each request from the
+   * round trip times of its host instead of using the fixed withTimeout() value.
+   * E.g., withRTTEstimator(new RTTEstimator(20, 2000)) waits about 60ms for a camera that normally
+   * answers in 15ms, yet allows up to 2s for a busy CV pipeline.
+   *
+   * @param rttEstimator estimator shared by clients of the same hosts or null for fixed timeouts
+   */
+  public FireREST withRTTEstimator(RTTEstimator rttEstimator) {
+    FireREST result = new FireREST(this);
+    result.rttEstimator = rttEstimator;
+    return result;
+  }
+
+  public RTTEstimator getRTTEstimator() {
+    return rttEstimator;
+  }
+
+  /**
+   * Return a FireREST client that sends a second, hedged request for JSON or images if the first request
+   * has not been answered within the 95th percentile of recent round trip times. The first response wins
+   * and the other request is aborted. Hedging requires withRTTEstimator() and applies once a host has
+   * enough samples.
+   */
+  public FireREST withHedging(boolean hedging) {
+    FireREST result = new FireREST(this);
+    result.hedging = hedging;
+    return result;
+  }
+
+  public boolean isHedging() {
+    return hedging;
+  }
+
+  /**
+   * Return a FireREST client that reports request latency, bytes read, image decode time, failures and
+   * error images to the given listener (e.g., ClientMetrics.getDefault())
+   *
+   * @param metrics listener or null for no metrics
+   */
+  public FireREST withMetrics(MetricsListener metrics) {
+    FireREST result = new FireREST(this);
+    result.metrics = metrics;
+    return result;
+  }
+
+  public MetricsListener getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Return connect/read timeout for the given URL
+   */
+  int getTimeout(URL url) {
+    return rttEstimator == null ? msTimeout : rttEstimator.getTimeout(url);
+  }
+
+  /**
+   * Return delay in milliseconds before hedging a request for the given URL or 0 to not hedge it
+   */
+  private int getHedgeDelay(URL url) {
+    return hedging && rttEstimator != null && url != null ? rttEstimator.getHedgeDelay(url) : 0;
+  }
+
+  /**
+   * Return a FireREST client that runs asynchronous requests on the given executor
+   * instead of the shared default executor (4 threads, 256 queued requests).
+   */
+  public FireREST withExecutor(Executor executor) {
+    if (executor == null) {
+      throw new NullPointerException("executor cannot be null");
+    }
+    FireREST result = new FireREST(this);
+    result.executor = executor;
+    return result;
+  }
+
+  /**
+   * Create a bounded executor suitable for withExecutor(). Requests submitted when the queue is full
+   * complete exceptionally with FireRESTException.
+   *
+   * @param nThreads maximum number of concurrent requests
+   * @param queueCapacity maximum number of waiting requests
+   * @return executor with daemon threads that time out when idle
+   */
+  public static ExecutorService newExecutor(int nThreads, int queueCapacity) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(queueCapacity), daemonThreadFactory("FireREST-async"));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  static ThreadFactory daemonThreadFactory(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static synchronized Executor getDefaultExecutor() {
+    if (defaultExecutor == null) {
+      defaultExecutor = newExecutor(4, 256);
+    }
+    return defaultExecutor;
+  }
+
+  private static synchronized ScheduledThreadPoolExecutor getTimeoutScheduler() {
+    if (timeoutScheduler == null) {
+      timeoutScheduler = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("FireREST-timeout"));
+      timeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+    return timeoutScheduler;
   }
 
   /**
@@ -48,42 +263,26 @@ public class FireREST {
   }
 
   /**
-   * Return an red image with the given text auto-sized to fit the current imageWidthximageHeight
+   * Return an red image with the given text auto-sized to fit the current imageWidthximageHeight.
+   * Renderings are cached, and each call returns a new copy that the caller may modify.
    *
    * @param lines one or more lines of text
    * @return image
    */
   public BufferedImage errorImage(String... lines) {
-    if (imageBuffer == null || imageBuffer.getWidth() != imageWidth || imageBuffer.getHeight() != imageHeight) {
-      imageBuffer = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
-    }
-    Graphics2D g = (Graphics2D) imageBuffer.getGraphics();
-    g.setBackground(new Color(64, 32, 32));
-    g.setColor(new Color(255, 64, 64));
-    g.clearRect(0, 0, imageWidth, imageHeight);
-    int maxLen = 0;
-    for (String line : lines) {
-      if (line != null) {
-        for (String innerLine : line.split("\n")) {
-          maxLen = Math.max(innerLine.length(), maxLen);
-        }
-      }
-    }
-    int padding = 20;
-    float sizeForWidth = 1.8f * (imageWidth - padding - padding) / maxLen; // should use TextLayout
-    float sizeForHeight = (imageHeight - padding - padding) / lines.length;
-    float lineHeight = Math.min(80, Math.max(12, Math.min(sizeForWidth, sizeForHeight)));
-    float fontSize = 0.8f * lineHeight;
-    Font font = g.getFont().deriveFont(fontSize);
-    g.setFont(font);
-    float y = fontSize + padding;
-    for (String line : lines) {
-      if (line != null) {
-        g.drawString(line, padding, y);
-        y += lineHeight;
-      }
+    return errorImages.render(imageWidth, imageHeight, null, lines);
+  }
+
+  /**
+   * Return errorImage() with the current time drawn over the cached rendering as the first line
+   *
+   * @param url requested image
+   */
+  private BufferedImage timestampedErrorImage(URL url, String... lines) {
+    if (metrics != null) {
+      metrics.errorImage(url);
     }
-    return imageBuffer;
+    return errorImages.render(imageWidth, imageHeight, new Date().toString(), lines);
   }
 
   /**
@@ -92,30 +291,75 @@ public class FireREST {
    * @return image from url or image with error text
    */
   public BufferedImage getImage(URL url) {
-    String now = new Date().toString();
+    return getImage(url, null);
+  }
+
+  /**
+   * Return image from given URL decoded into the given destination image.
+   * The destination is used only if it matches the size and type of the decoded image,
+   * so callers must use the returned image. Requests with a destination are not hedged,
+   * since a losing request could still be decoding into the destination after this returns.
+   *
+   * @param destination image to decode into or null
+   * @return image from url, which is destination if it was used, or image with error text
+   */
+  public BufferedImage getImage(final URL url, final BufferedImage destination) {
+    int msHedge = destination == null ? getHedgeDelay(url) : 0;
+    if (msHedge > 0) {
+      Attempt<BufferedImage> request = call -> decodeImage(url, null, call);
+      try {
+        return join(url, submit(url, 0, request, request, msHedge, null, e -> imageError(url, e)));
+      } catch (FireRESTException e) {
+        BufferedImage image = imageError(url, e);
+        if (e.getCause() instanceof InterruptedException) {
+          Thread.currentThread().interrupt(); // rendering text can clear the flag set by join()
+        }
+        return image;
+      }
+    }
+    try {
+      return decodeImage(url, destination, null);
+    } catch (Exception e) {
+      return imageError(url, e);
+    }
+  }
+
+  private BufferedImage decodeImage(URL url, BufferedImage destination, HttpCall call) throws IOException {
     if (url == null) {
-      return errorImage(now, "(No image url)");
+      return timestampedErrorImage(null, "(No image url)");
     }
+    long nsStart = System.nanoTime();
+    HttpResponse response = null;
     try {
-      HttpURLConnection urlconn = (HttpURLConnection) url.openConnection();
-      urlconn.setReadTimeout(msTimeout);
-      urlconn.setConnectTimeout(msTimeout);
-      urlconn.setRequestMethod("GET");
-      urlconn.connect();
-      BufferedImage image = ImageIO.read(urlconn.getInputStream());
+      response = open(url, null, call);
+      long nsDecode = System.nanoTime();
+      BufferedImage image = imageDecoder.decode(response.getInputStream(), response.getContentType(), destination);
+      if (metrics != null) {
+        metrics.decoded(url, System.nanoTime() - nsDecode);
+      }
+      record(MetricsListener.Operation.GET_IMAGE, url, nsStart, response, null, call);
       if (image == null) {
-        return errorImage(now, "(Null image read)");
+        return timestampedErrorImage(url, "(Null image read)");
       }
       imageWidth = image.getWidth();
       imageHeight = image.getHeight();
       return image;
-    } catch (SocketTimeoutException e) {
-      logger.warn("getImage({}) => {} {}", url, e.getClass().getCanonicalName(), e.getMessage());
-      return errorImage(now, msTimeout+"ms TIMEOUT");
-    }  catch (Exception e) {
-      logger.warn("getImage({}) => {} {}", url, e.getClass().getCanonicalName(), e.getMessage());
-      return errorImage(now, "(No image)", url.toString(), e.getMessage());
+    } catch (Throwable e) {
+      record(MetricsListener.Operation.GET_IMAGE, url, nsStart, response, e, call);
+      throw e;
+    } finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  private BufferedImage imageError(URL url, Throwable e) {
+    logger.warn("getImage({}) => {} {}", url, e.getClass().getCanonicalName(), e.getMessage());
+    if (e instanceof SocketTimeoutException) {
+      return timestampedErrorImage(url, getTimeout(url)+"ms TIMEOUT");
     }
+    return timestampedErrorImage(url, "(No image)", String.valueOf(url), e.getMessage());
   }
 
   /**
@@ -125,9 +369,8 @@ public class FireREST {
    * @return JSONResult
    */
   public JSONResult getJSON(File file) {
-    try {
-      String json = new Scanner(file).useDelimiter("\\Z").next();
-      return new JSONResult(json);
+    try (InputStream in = new FileInputStream(file)) {
+      return JSONResult.parse(in, StandardCharsets.UTF_8);
     }
     catch (Throwable e) {
       throw new FireRESTException(file.toString(), e);
@@ -139,26 +382,421 @@ public class FireREST {
    *
    * @return JSONResult
    */
-  public JSONResult getJSON(URL url) {
+  public JSONResult getJSON(final URL url) {
+    int msHedge = getHedgeDelay(url);
+    if (msHedge > 0) {
+      Attempt<JSONResult> request = call -> getJSON(url, call);
+      return join(url, submit(url, 0, request, request, msHedge, null, null));
+    }
+    return getJSON(url, null);
+  }
+
+  private JSONResult getJSON(URL url, HttpCall call) {
+    long nsStart = System.nanoTime();
+    HttpResponse response = null;
     try {
       logger.debug("Requesting {}", url);
-      StringBuilder text = new StringBuilder();
-      String line;
-
-      HttpURLConnection urlconn = (HttpURLConnection) url.openConnection();
-      urlconn.setReadTimeout(msTimeout);
-      urlconn.setConnectTimeout(msTimeout);
-      urlconn.setRequestMethod("GET");
-      urlconn.connect();
-      BufferedReader br = new BufferedReader(new InputStreamReader(urlconn.getInputStream()));
-      while ((line = br.readLine()) != null) {
-        text.append(line);
+      JSONCache.Entry cached = jsonCache == null ? null : jsonCache.lookup(url);
+      response = open(url, cached == null ? null : cached.validators, call);
+      JSONResult result;
+      if (cached != null && response.getStatus() == 304) {
+        result = jsonCache.hit(cached);
+      } else {
+        result = JSONResult.parse(response.getInputStream(), response.getCharset(StandardCharsets.UTF_8));
+        if (jsonCache != null) {
+          jsonCache.store(url, response, result);
+        }
       }
-      return new JSONResult(text.toString());
+      record(MetricsListener.Operation.GET_JSON, url, nsStart, response, null, call);
+      return result;
     }
     catch (Throwable e) {
+      record(MetricsListener.Operation.GET_JSON, url, nsStart, response, e, call);
       throw new FireRESTException(url.toString(), e);
     }
+    finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * HTTP GET json from given URL resource without blocking the calling thread.
+   *
+   * @return future JSONResult that completes exceptionally with FireRESTException on failure
+   */
+  public CompletableFuture<JSONResult> getJSONAsync(URL url) {
+    return getJSONAsync(url, 0);
+  }
+
+  /**
+   * HTTP GET json from given URL resource without blocking the calling thread.
+   * Cancelling the returned future aborts the request.
+   *
+   * @param msCallTimeout maximum time for the entire call or 0 for no limit other than the connect/read timeout
+   * @return future JSONResult that completes exceptionally with FireRESTException on failure or timeout
+   */
+  public CompletableFuture<JSONResult> getJSONAsync(final URL url, final int msCallTimeout) {
+    Attempt<JSONResult> request = call -> getJSON(url, call);
+    return submit(url, msCallTimeout, request, request, getHedgeDelay(url), () -> {
+      throw new FireRESTException(url + " " + msCallTimeout + "ms TIMEOUT", new TimeoutException());
+    }, null);
+  }
+
+  /**
+   * Return image from given URL without blocking the calling thread.
+   *
+   * @return future image from url or image with error text
+   */
+  public CompletableFuture<BufferedImage> getImageAsync(URL url) {
+    return getImageAsync(url, 0);
+  }
+
+  /**
+   * Return image from given URL without blocking the calling thread.
+   * Cancelling the returned future aborts the request.
+   *
+   * @param msCallTimeout maximum time for the entire call or 0 for no limit other than the connect/read timeout
+   * @return future image from url or image with error text
+   */
+  public CompletableFuture<BufferedImage> getImageAsync(final URL url, final int msCallTimeout) {
+    Attempt<BufferedImage> request = call -> decodeImage(url, null, call);
+    return submit(url, msCallTimeout, request, request, getHedgeDelay(url),
+        () -> timestampedErrorImage(url, msCallTimeout + "ms TIMEOUT"), e -> imageError(url, e));
+  }
+
+  /**
+   * HTTP GET json from the given URLs concurrently, with at most as many requests in flight
+   * per host as the connection pool keeps idle connections for that host.
+   *
+   * @param msDeadline time after which requests still in flight are aborted or 0 for no limit
+   * @return JSON results of the URLs that succeeded before the deadline, in the order of urls
+   */
+  public Map<URL, JSONResult> getJSONBatch(Collection<URL> urls, int msDeadline) {
+    return getJSONBatch(urls, msDeadline, Math.max(1, httpPool.getMaxIdlePerHost()));
+  }
+
+  /**
+   * HTTP GET json from the given URLs concurrently. The batch takes about as long as its slowest
+   * request rather than the sum of its requests. Unless withExecutor() was given, batch requests
+   * run on threads that are not shared with getJSONAsync()/getImageAsync(), so a batch can have
+   * maxPerHost requests in flight for each of its hosts. A given executor caps batch concurrency
+   * at its thread count, and requests it rejects are logged and omitted from the result.
+   *
+   * @param msDeadline time after which requests still in flight are aborted or 0 for no limit
+   * @param maxPerHost maximum number of requests in flight for each host:port
+   * @return JSON results of the URLs that succeeded before the deadline, in the order of urls
+   */
+  public Map<URL, JSONResult> getJSONBatch(Collection<URL> urls, int msDeadline, int maxPerHost) {
+    final FireREST client = executor == null ? withExecutor(getBatchExecutor()) : this;
+    return batch(urls, msDeadline, maxPerHost, url -> client.getJSONAsync(url), null);
+  }
+
+  /**
+   * Return images from the given URLs concurrently, with at most as many requests in flight
+   * per host as the connection pool keeps idle connections for that host.
+   *
+   * @param msDeadline time after which requests still in flight are aborted or 0 for no limit
+   * @return images or error images (as with getImage()) of the URLs that completed before the deadline,
+   *     in the order of urls
+   */
+  public Map<URL, BufferedImage> getImageBatch(Collection<URL> urls, int msDeadline) {
+    return getImageBatch(urls, msDeadline, Math.max(1, httpPool.getMaxIdlePerHost()));
+  }
+
+  /**
+   * Return images from the given URLs concurrently. The batch takes about as long as its slowest
+   * request rather than the sum of its requests. See getJSONBatch() for batch concurrency.
+   *
+   * @param msDeadline time after which requests still in flight are aborted or 0 for no limit
+   * @param maxPerHost maximum number of requests in flight for each host:port
+   * @return images or error images (as with getImage()) of the URLs that completed before the deadline,
+   *     in the order of urls
+   */
+  public Map<URL, BufferedImage> getImageBatch(Collection<URL> urls, int msDeadline, int maxPerHost) {
+    final FireREST client = executor == null ? withExecutor(getBatchExecutor()) : this;
+    return batch(urls, msDeadline, maxPerHost, url -> {
+      Attempt<BufferedImage> request = call -> client.decodeImage(url, null, call);
+      return client.submit(url, 0, request, request, client.getHedgeDelay(url), null, null);
+    }, (url, e) -> imageError(url, e));
+  }
+
+  /**
+   * Return executor for batch requests, whose concurrency is bounded by the per-host limits
+   * of each batch rather than by a thread count
+   */
+  private static synchronized Executor getBatchExecutor() {
+    if (batchExecutor == null) {
+      batchExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), daemonThreadFactory("FireREST-batch"));
+    }
+    return batchExecutor;
+  }
+
+  /**
+   * Requests of one batch for one host:port
+   */
+  private static class BatchHost {
+    final ArrayDeque<URL> queue = new ArrayDeque<URL>();
+    final AtomicInteger work = new AtomicInteger(); // pending drain() passes
+    int inFlight; // guarded by queue
+  }
+
+  /**
+   * Run one request per URL, starting the next request for a host as soon as one of its requests completes
+   *
+   * @param onError result for a failed request or null to omit failed requests
+   */
+  private <T> Map<URL, T> batch(Collection<URL> urls, int msDeadline, final int maxPerHost,
+                                final Function<URL, CompletableFuture<T>> request,
+                                final BiFunction<URL, Throwable, T> onError) {
+    if (maxPerHost < 1) {
+      throw new FireRESTException("Expected maxPerHost > 0");
+    }
+    long nsDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(msDeadline);
+    Set<URL> unique = new LinkedHashSet<URL>(urls);
+    Map<String, BatchHost> hosts = new LinkedHashMap<String, BatchHost>();
+    for (URL url : unique) {
+      BatchHost host = hosts.get(url.getAuthority());
+      if (host == null) {
+        host = new BatchHost();
+        hosts.put(url.getAuthority(), host);
+      }
+      host.queue.add(url);
+    }
+    final ConcurrentHashMap<URL, T> results = new ConcurrentHashMap<URL, T>();
+    final Set<CompletableFuture<T>> inFlight = ConcurrentHashMap.newKeySet();
+    final CountDownLatch remaining = new CountDownLatch(unique.size());
+    final AtomicInteger rejected = new AtomicInteger();
+    final AtomicBoolean expired = new AtomicBoolean();
+    final Consumer<BatchHost> drain = new Consumer<BatchHost>() {
+      /**
+       * Start requests up to the host limit. Completions that happen while draining, including
+       * requests that complete immediately, are handled by another pass of the same loop
+       * rather than by recursion.
+       */
+      public void accept(final BatchHost host) {
+        if (host.work.getAndIncrement() != 0) {
+          return;
+        }
+        do {
+          while (true) {
+            final URL url;
+            synchronized (host.queue) {
+              if (expired.get() || host.inFlight >= maxPerHost || host.queue.isEmpty()) {
+                break;
+              }
+              url = host.queue.poll();
+              host.inFlight++;
+            }
+            final CompletableFuture<T> future = request.apply(url);
+            inFlight.add(future);
+            future.whenComplete((result, e) -> {
+              inFlight.remove(future);
+              Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+              if (cause == null) {
+                results.put(url, result);
+              } else if (cause.getCause() instanceof RejectedExecutionException) {
+                rejected.incrementAndGet();
+              } else if (onError != null && !(cause instanceof CancellationException)) {
+                results.put(url, onError.apply(url, cause));
+              }
+              synchronized (host.queue) {
+                host.inFlight--;
+              }
+              remaining.countDown();
+              accept(host);
+            });
+            if (expired.get()) {
+              future.cancel(true);
+            }
+          }
+        } while (host.work.decrementAndGet() != 0);
+      }
+    };
+    for (BatchHost host : hosts.values()) {
+      drain.accept(host);
+    }
+    try {
+      if (msDeadline <= 0) {
+        remaining.await();
+      } else if (!remaining.await(nsDeadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        logger.debug("Batch deadline {}ms expired with {} of {} requests incomplete",
+            msDeadline, remaining.getCount(), unique.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      expired.set(true);
+      for (CompletableFuture<T> future : inFlight) {
+        future.cancel(true); // abort requests that missed the deadline
+      }
+    }
+    if (rejected.get() > 0) {
+      logger.warn("Batch of {} requests: {} rejected by executor", unique.size(), rejected.get());
+    }
+    Map<URL, T> result = new LinkedHashMap<URL, T>();
+    for (URL url : unique) {
+      T value = results.get(url);
+      if (value != null) {
+        result.put(url, value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Request that can be aborted through its HttpCall
+   */
+  private interface Attempt<T> {
+    T call(HttpCall call) throws Exception;
+  }
+
+  /**
+   * Run request on the executor.
+   *
+   * @param msCallTimeout time after which the returned future completes with onTimeout or 0
+   * @param hedgeRequest request sent after msHedge if there is no response yet
+   * @param msHedge hedge delay from getHedgeDelay() or 0 to not hedge
+   * @param onError result for a failed request or null to complete exceptionally
+   */
+  private <T> CompletableFuture<T> submit(URL url, int msCallTimeout, Attempt<T> request,
+                                          final Attempt<T> hedgeRequest, final int msHedge,
+                                          final Callable<T> onTimeout,
+                                          final Function<Throwable, T> onError) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final List<Runnable> aborts = new CopyOnWriteArrayList<Runnable>();
+    if (!start(future, request, inFlight, aborts, onError)) {
+      return future;
+    }
+    final ScheduledFuture<?> timer = msCallTimeout <= 0 ? null : getTimeoutScheduler().schedule(() -> {
+      try {
+        future.complete(onTimeout.call());
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }, msCallTimeout, TimeUnit.MILLISECONDS);
+    final ScheduledFuture<?> hedge = msHedge <= 0 ? null : getTimeoutScheduler().schedule(() -> {
+      if (!future.isDone()) {
+        logger.debug("Hedging {} after {}ms", url, msHedge);
+        start(future, hedgeRequest, inFlight, aborts, onError);
+      }
+    }, msHedge, TimeUnit.MILLISECONDS);
+    future.whenComplete((result, e) -> {
+      if (timer != null) {
+        timer.cancel(false);
+      }
+      if (hedge != null) {
+        hedge.cancel(false);
+      }
+      for (Runnable abort : aborts) {
+        abort.run(); // requests that lost, timed out or were cancelled
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Start a request that completes the future. A failure completes the future only if no other
+   * request for the future is in flight.
+   *
+   * @return false if the executor rejected the request
+   */
+  private <T> boolean start(final CompletableFuture<T> future, final Attempt<T> request,
+                            final AtomicInteger inFlight, List<Runnable> aborts,
+                            final Function<Throwable, T> onError) {
+    final HttpCall call = new HttpCall();
+    final FutureTask<Void> task = new FutureTask<Void>(() -> {
+      T result;
+      try {
+        result = request.call(call);
+      } catch (Throwable e) {
+        if (inFlight.decrementAndGet() == 0) {
+          fail(future, e, onError);
+        }
+        return;
+      }
+      future.complete(result);
+    }, null);
+    Runnable abort = () -> {
+      task.cancel(false);
+      call.abort();
+    };
+    aborts.add(abort);
+    inFlight.incrementAndGet();
+    try {
+      (executor == null ? getDefaultExecutor() : executor).execute(task);
+    } catch (RejectedExecutionException e) {
+      if (inFlight.decrementAndGet() == 0) {
+        fail(future, new FireRESTException("FireREST request rejected by executor", e), onError);
+      }
+      return false;
+    }
+    if (future.isDone()) {
+      abort.run();
+    }
+    return true;
+  }
+
+  private static <T> void fail(CompletableFuture<T> future, Throwable e, Function<Throwable, T> onError) {
+    if (onError == null) {
+      future.completeExceptionally(e);
+    } else {
+      future.complete(onError.apply(e));
+    }
+  }
+
+  /**
+   * Wait for a hedged request
+   */
+  private static <T> T join(URL url, CompletableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof FireRESTException) {
+        throw (FireRESTException) e.getCause();
+      }
+      throw new FireRESTException(url.toString(), e.getCause());
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new FireRESTException(url.toString(), e);
+    }
+  }
+
+  private void record(MetricsListener.Operation operation, URL url, long nsStart, HttpResponse response,
+                      Throwable e, HttpCall call) {
+    if (metrics == null) {
+      return;
+    }
+    MetricsListener.Outcome outcome = MetricsListener.Outcome.OK;
+    if (e instanceof SocketTimeoutException) {
+      outcome = MetricsListener.Outcome.TIMEOUT;
+    } else if (e != null) {
+      outcome = call != null && call.isAborted() ? MetricsListener.Outcome.ABORTED : MetricsListener.Outcome.ERROR;
+    }
+    metrics.request(operation, url, System.nanoTime() - nsStart, response == null ? -1 : response.getBytesRead(), outcome);
+  }
+
+  /**
+   * Send request with the timeout for the given URL and record its round trip time
+   */
+  private HttpResponse open(URL url, Map<String, String> headers, HttpCall call) throws IOException {
+    long nsStart = System.nanoTime();
+    try {
+      HttpResponse response = httpPool.get(url, getTimeout(url), headers, call);
+      if (rttEstimator != null) {
+        rttEstimator.sample(url, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nsStart));
+      }
+      return response;
+    } catch (SocketTimeoutException e) {
+      if (rttEstimator != null) {
+        rttEstimator.timeout(url);
+      }
+      throw e;
+    }
   }
 
 }
@@ -1,26 +1,121 @@
 package org.firepick;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Unchecked exception wrapper for FireREST
+ * Unchecked exception wrapper for FireREST.
+ * Exceptions are logged at INFO at most once per second, since callers often catch and discard them.
+ * Stack traces can be disabled with setStackTraces(false) or -Dfirerest.exception.stacktrace=false
+ * to make exceptions cheap during outages and bad-payload storms.
  */
 public class FireRESTException extends RuntimeException {
   static Logger logger = LoggerFactory.getLogger(FireRESTException.class);
+  /** Maximum length of messages that include request or response content */
+  public static final int MAX_MESSAGE = 256;
+  private static final long NS_LOG_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+  private static final AtomicLong nsNextLog = new AtomicLong(System.nanoTime());
+  private static final AtomicLong suppressedLogs = new AtomicLong();
+  private static volatile boolean stackTraces =
+      !"false".equals(System.getProperty("firerest.exception.stacktrace"));
+
+  private Supplier<String> messageSupplier;
+  private String message;
 
   public FireRESTException(Throwable e) {
-    super(e);
-    logger.info("{}", e.getMessage());
+    super(e == null ? null : e.toString(), e, true, stackTraces);
+    log();
   }
 
   public FireRESTException(String msg) {
-    super(msg);
-    logger.info("{}", msg);
+    super(msg, null, true, stackTraces);
+    log();
   }
- 
+
   public FireRESTException(String msg, Throwable e) {
-    super(msg, e);
-    logger.info("{} {}", msg, e.getMessage());
+    super(msg, e, true, stackTraces);
+    log();
+  }
+
+  /**
+   * Exception whose message is built and truncated to MAX_MESSAGE characters only if requested
+   */
+  FireRESTException(Supplier<String> messageSupplier, Throwable e) {
+    super(null, e, true, stackTraces);
+    this.messageSupplier = messageSupplier;
+    log();
+  }
+
+  /**
+   * Capture stack traces of new exceptions (default) or not
+   */
+  public static void setStackTraces(boolean enabled) {
+    stackTraces = enabled;
+  }
+
+  public static boolean isStackTraces() {
+    return stackTraces;
+  }
+
+  @Override
+  public synchronized String getMessage() {
+    if (messageSupplier != null) {
+      message = truncate(messageSupplier.get());
+      messageSupplier = null;
+      return message;
+    }
+    return message == null ? super.getMessage() : message;
+  }
+
+  /**
+   * Return text shortened to at most MAX_MESSAGE characters
+   */
+  static String truncate(String text) {
+    if (text == null || text.length() <= MAX_MESSAGE) {
+      return text;
+    }
+    return text.substring(0, MAX_MESSAGE - 3) + "...";
+  }
+
+  private void log() {
+    if (!logger.isInfoEnabled()) {
+      return;
+    }
+    long nsNow = System.nanoTime();
+    long nsNext = nsNextLog.get();
+    if (nsNow - nsNext < 0 || !nsNextLog.compareAndSet(nsNext, nsNow + NS_LOG_INTERVAL)) {
+      suppressedLogs.incrementAndGet();
+      return;
+    }
+    long suppressed = suppressedLogs.getAndSet(0);
+    Object line = new LogLine(this); // formatted only if the backend emits it
+    if (suppressed == 0) {
+      logger.info("{}", line);
+    } else {
+      logger.info("{} ({} similar exceptions not logged)", line, suppressed);
+    }
+  }
+
+  /**
+   * Log text of an exception, which builds a lazy message only when the log is formatted.
+   * This can happen during construction, so subclasses that override getMessage() must
+   * handle fields that are not yet set.
+   */
+  private static final class LogLine {
+    private final FireRESTException e;
+
+    LogLine(FireRESTException e) {
+      this.e = e;
+    }
+
+    @Override
+    public String toString() {
+      Throwable cause = e.getCause();
+      String causeMessage = cause == null ? null : cause.getMessage();
+      return causeMessage == null ? e.getMessage() : e.getMessage() + " " + causeMessage;
+    }
   }
 }
@@ -0,0 +1,207 @@
+package org.firepick;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Background camera frame poller. Each polled camera URL has its own producer thread that
+ * fetches frames with FireREST.getImage() and posts them to that URL's LIFOCache, so that
+ * consumers obtain the freshest frame with peek() or get() without waiting on the network.
+ * Failed fetches post the FireREST error image, just as getImage() returns it.
+ */
+public class FramePoller {
+  static Logger logger = LoggerFactory.getLogger(FramePoller.class);
+  private final FireREST firerest;
+  private final HashMap<String, Producer> producers = new HashMap<String, Producer>();
+
+  public FramePoller() {
+    this(new FireREST());
+  }
+
+  /**
+   * @param firerest client used to fetch frames (e.g., with an appropriate timeout)
+   */
+  public FramePoller(FireREST firerest) {
+    if (firerest == null) {
+      throw new NullPointerException("firerest cannot be null");
+    }
+    this.firerest = firerest;
+  }
+
+  /**
+   * Start polling the given camera URL or change the target rate if it is already being polled.
+   *
+   * @param url camera image URL
+   * @param fps target frames per second
+   * @return cache that receives the polled frames
+   */
+  public synchronized LIFOCache<BufferedImage> start(URL url, double fps) {
+    if (!(fps > 0)) {
+      throw new FireRESTException("Expected fps > 0");
+    }
+    String key = url.toExternalForm();
+    Producer producer = producers.get(key);
+    if (producer == null) {
+      producer = new Producer(url, fps);
+      producers.put(key, producer);
+      producer.thread.start();
+      logger.info("Polling {} at {}fps", url, fps);
+    } else {
+      producer.setFPS(fps);
+    }
+    return producer.cache;
+  }
+
+  /**
+   * Stop polling the given camera URL. The frame cache of a stopped URL is discarded.
+   */
+  public synchronized void stop(URL url) {
+    Producer producer = producers.remove(url.toExternalForm());
+    if (producer != null) {
+      producer.stop();
+      logger.info("Stopped polling {}", url);
+    }
+  }
+
+  /**
+   * Stop polling all camera URLs
+   */
+  public synchronized void stopAll() {
+    for (Producer producer : producers.values()) {
+      producer.stop();
+    }
+    producers.clear();
+  }
+
+  public synchronized boolean isPolling(URL url) {
+    return producers.containsKey(url.toExternalForm());
+  }
+
+  /**
+   * Return URLs currently being polled
+   */
+  public synchronized ArrayList<URL> getURLs() {
+    ArrayList<URL> result = new ArrayList<URL>();
+    for (Producer producer : producers.values()) {
+      result.add(producer.url);
+    }
+    return result;
+  }
+
+  /**
+   * Return frame cache for given camera URL
+   *
+   * @return cache or null if URL is not being polled
+   */
+  public synchronized LIFOCache<BufferedImage> getCache(URL url) {
+    Producer producer = producers.get(url.toExternalForm());
+    return producer == null ? null : producer.cache;
+  }
+
+  /**
+   * Return the achieved frame rate of given camera URL, smoothed over recent frames
+   *
+   * @return frames per second or 0 if URL is not being polled or has not yet produced two frames
+   */
+  public synchronized double getFPS(URL url) {
+    Producer producer = producers.get(url.toExternalForm());
+    return producer == null ? 0 : producer.getFPS();
+  }
+
+  /**
+   * Return the time elapsed since the latest frame of given camera URL was received
+   *
+   * @return milliseconds or -1 if URL is not being polled or has not yet produced a frame
+   */
+  public synchronized long getFrameAge(URL url) {
+    Producer producer = producers.get(url.toExternalForm());
+    return producer == null ? -1 : producer.getFrameAge();
+  }
+
+  /**
+   * Frame producer for one camera URL
+   */
+  private class Producer implements Runnable {
+    private static final double SMOOTHING = 0.2;
+    final URL url;
+    final LIFOCache<BufferedImage> cache = new LIFOCache<BufferedImage>();
+    Thread thread;
+    private volatile long nsPeriod = Long.MAX_VALUE;
+    private volatile boolean running = true;
+    private volatile long nsLastFrame;
+    private volatile double nsInterval;
+
+    Producer(URL url, double fps) {
+      this.url = url;
+      setFPS(fps);
+      thread = new Thread(this, "FramePoller " + url);
+      thread.setDaemon(true);
+    }
+
+    void setFPS(double fps) {
+      long period = (long) (1e9 / fps);
+      boolean faster = period < nsPeriod;
+      nsPeriod = period;
+      if (faster && thread != null) {
+        thread.interrupt(); // cut short the current sleep
+      }
+    }
+
+    double getFPS() {
+      double interval = nsInterval;
+      return interval > 0 ? 1e9 / interval : 0;
+    }
+
+    long getFrameAge() {
+      long last = nsLastFrame;
+      return last == 0 ? -1 : (System.nanoTime() - last) / 1000000;
+    }
+
+    void stop() {
+      running = false;
+      thread.interrupt();
+    }
+
+    public void run() {
+      while (running) {
+        long nsStart = System.nanoTime();
+        try {
+          poll();
+        } catch (RuntimeException e) {
+          Thread.interrupted(); // clear an interrupt from stop() or setFPS() that cut the request short
+          if (running) {
+            logger.warn("Could not poll {}: {}", url, e.toString());
+          }
+        }
+        long nsSleep = nsPeriod - (System.nanoTime() - nsStart);
+        if (running && nsSleep > 0) {
+          try {
+            Thread.sleep(nsSleep / 1000000, (int) (nsSleep % 1000000));
+          } catch (InterruptedException e) {
+            // stop() or setFPS()
+          }
+        }
+      }
+    }
+
+    private void poll() {
+      BufferedImage image = firerest.getImage(url);
+      if (!running) {
+        return;
+      }
+      cache.post(image);
+      long nsNow = System.nanoTime();
+      if (nsLastFrame != 0) {
+        long interval = nsNow - nsLastFrame;
+        nsInterval = nsInterval == 0 ? interval : nsInterval + SMOOTHING * (interval - nsInterval);
+      }
+      nsLastFrame = nsNow;
+    }
+  }
+
+}
@@ -0,0 +1,110 @@
+package org.firepick;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear histogram of non-negative values (e.g., microseconds).
+ * Values below 16 are counted exactly. Larger values fall into 8 buckets per power of two,
+ * so percentiles are accurate to 12.5%. Recording is lock-free and allocation-free.
+ */
+public class Histogram {
+  static final int EXACT = 16;
+  static final int SUB_BUCKETS = 8;
+  static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value. Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(bucket(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long prev;
+    while (value > (prev = max.get()) && !max.compareAndSet(prev, value)) {
+      // retry
+    }
+  }
+
+  static int bucket(long value) {
+    if (value < EXACT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value); // >= 4
+    int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+    return EXACT + (exponent - 4) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Return largest value that falls into the given bucket
+   */
+  static long highestValue(int bucket) {
+    if (bucket < EXACT) {
+      return bucket;
+    }
+    int exponent = (bucket - EXACT) / SUB_BUCKETS + 4;
+    int sub = (bucket - EXACT) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Return mean of recorded values or 0 if there are none
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / (double) n;
+  }
+
+  /**
+   * Return an upper bound for the given percentile (0..1) of recorded values or 0 if there are none
+   */
+  public long getPercentile(double percentile) {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      n += counts.get(i);
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "n:" + getCount() + " mean:" + Math.round(getMean()) + " p50:" + getPercentile(0.5)
+        + " p99:" + getPercentile(0.99) + " max:" + getMax();
+  }
+}
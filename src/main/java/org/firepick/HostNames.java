@@ -0,0 +1,149 @@
+package org.firepick;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous reverse DNS cache for display purposes only.
+ * getName() never blocks: it returns the cached host name if known and the literal
+ * IP address otherwise, starting a background lookup whose result is cached for the TTL.
+ * Scanning and resolving use literal addresses and never depend on this cache.
+ * At most MAX_ENTRIES names are cached. Once the cache is full, unknown addresses are returned
+ * as literal IP addresses without a lookup until cached names expire.
+ */
+public class HostNames {
+  static Logger logger = LoggerFactory.getLogger(HostNames.class);
+  static final int MAX_ENTRIES = 4096;
+  private static final HostNames defaultNames = new HostNames(TimeUnit.MINUTES.toMillis(5));
+  private static ExecutorService executor;
+
+  private final long msTTL;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private volatile long msNextEviction; // earliest expiry of a cached name after the last eviction
+
+  /**
+   * @param msTTL time in milliseconds to cache each host name
+   */
+  public HostNames(long msTTL) {
+    if (msTTL < 0) {
+      throw new FireRESTException("Expected msTTL >= 0");
+    }
+    this.msTTL = msTTL;
+  }
+
+  /**
+   * Return the cache shared by IPv4Scanner and ServiceResolver
+   */
+  public static HostNames getDefault() {
+    return defaultNames;
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = FireREST.newExecutor(2, 256);
+    }
+    return executor;
+  }
+
+  public long getTTL() {
+    return msTTL;
+  }
+
+  /**
+   * Return number of cached host names, including pending lookups
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Return the cached host name of the given address or its literal IP address
+   * if the name is not yet known. Does not block.
+   */
+  public String getName(final InetAddress addr) {
+    final String ip = addr.getHostAddress();
+    long now = System.currentTimeMillis();
+    Entry entry = entries.get(ip);
+    if (entry != null && (entry.pending || entry.msExpires > now)) {
+      return entry.name == null ? ip : entry.name;
+    }
+    if (entry == null && entries.size() >= MAX_ENTRIES
+        && (now < msNextEviction || evictExpired(now) >= MAX_ENTRIES)) {
+      return ip; // full
+    }
+    final Entry pending = new Entry(entry == null ? null : entry.name, 0, true);
+    boolean started = entry == null ? entries.putIfAbsent(ip, pending) == null : entries.replace(ip, entry, pending);
+    if (started) {
+      try {
+        getExecutor().execute(new Runnable() {
+          public void run() {
+            lookup(addr, ip, pending);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        entries.remove(ip, pending);
+      }
+    }
+    return pending.name == null ? ip : pending.name;
+  }
+
+  private void lookup(InetAddress addr, String ip, Entry pending) {
+    String name = ip;
+    try {
+      // a new instance does not share a cached name with the caller's InetAddress
+      name = InetAddress.getByAddress(addr.getAddress()).getCanonicalHostName();
+    } catch (UnknownHostException e) {
+      logger.debug("No host name for {}", ip);
+    }
+    entries.replace(ip, pending, new Entry(name, System.currentTimeMillis() + msTTL, false));
+  }
+
+  /**
+   * Remove expired names, scanning at most once until the earliest remaining name expires
+   *
+   * @return number of remaining entries
+   */
+  private synchronized int evictExpired(long now) {
+    if (now >= msNextEviction) {
+      long msNext = now + msTTL; // pending lookups expire no earlier
+      Iterator<Entry> it = entries.values().iterator();
+      while (it.hasNext()) {
+        Entry entry = it.next();
+        if (entry.pending) {
+          continue;
+        }
+        if (entry.msExpires <= now) {
+          it.remove();
+        } else {
+          msNext = Math.min(msNext, entry.msExpires);
+        }
+      }
+      msNextEviction = msNext;
+    }
+    return entries.size();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    msNextEviction = 0;
+  }
+
+  private static class Entry {
+    final String name;
+    final long msExpires;
+    final boolean pending;
+
+    Entry(String name, long msExpires, boolean pending) {
+      this.name = name;
+      this.msExpires = msExpires;
+      this.pending = pending;
+    }
+  }
+}
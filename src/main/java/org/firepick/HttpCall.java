@@ -0,0 +1,50 @@
+package org.firepick;
+
+import java.io.InterruptedIOException;
+
+/**
+ * HTTP request in progress that can be aborted from another thread.
+ * Aborting closes the connection, which unblocks a thread waiting for the response.
+ */
+class HttpCall {
+  private HttpPool.Connection conn;
+  private HttpResponse response;
+  private boolean aborted;
+
+  synchronized void attach(HttpPool.Connection conn) throws InterruptedIOException {
+    if (aborted) {
+      conn.close();
+      throw new InterruptedIOException("Request aborted");
+    }
+    this.conn = conn;
+    this.response = null; // a redirect response was already closed
+  }
+
+  synchronized void attach(HttpResponse response) throws InterruptedIOException {
+    this.conn = null;
+    this.response = response;
+    if (aborted) {
+      response.abort();
+      throw new InterruptedIOException("Request aborted");
+    }
+  }
+
+  synchronized void checkAborted() throws InterruptedIOException {
+    if (aborted) {
+      throw new InterruptedIOException("Request aborted");
+    }
+  }
+
+  synchronized boolean isAborted() {
+    return aborted;
+  }
+
+  synchronized void abort() {
+    aborted = true;
+    if (response != null) {
+      response.abort();
+    } else if (conn != null) {
+      conn.close();
+    }
+  }
+}
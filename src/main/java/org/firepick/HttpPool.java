@@ -0,0 +1,574 @@
+package org.firepick;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep-alive HTTP/1.1 connection pool for FireREST GET requests.
+ * Connections are pooled per host:port and returned to the pool once the response body has been drained.
+ * URLs with protocols other than http (e.g., https, file) are delegated to URL.openConnection().
+ */
+public class HttpPool {
+  static Logger logger = LoggerFactory.getLogger(HttpPool.class);
+  private static final HttpPool defaultPool = new HttpPool();
+  private static final int MAX_REDIRECTS = 5;
+
+  private final int maxIdlePerHost;
+  private final long msIdleTimeout;
+  private final HashMap<String, ArrayDeque<Connection>> idleMap = new HashMap<String, ArrayDeque<Connection>>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public HttpPool() {
+    this(4, 15000);
+  }
+
+  /**
+   * @param maxIdlePerHost maximum number of idle keep-alive connections retained for each host:port
+   * @param msIdleTimeout idle connections older than this are closed instead of reused
+   */
+  public HttpPool(int maxIdlePerHost, long msIdleTimeout) {
+    if (maxIdlePerHost < 0) {
+      throw new FireRESTException("Expected maxIdlePerHost >= 0");
+    }
+    this.maxIdlePerHost = maxIdlePerHost;
+    this.msIdleTimeout = msIdleTimeout;
+  }
+
+  /**
+   * Return the pool shared by FireREST instances that do not specify their own
+   */
+  public static HttpPool getDefault() {
+    return defaultPool;
+  }
+
+  public int getMaxIdlePerHost() {
+    return maxIdlePerHost;
+  }
+
+  public long getIdleTimeout() {
+    return msIdleTimeout;
+  }
+
+  /**
+   * Return number of requests that reused a pooled connection
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Return number of requests that had to open a new connection
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Return number of idle connections closed because they expired or overflowed the pool
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Return number of idle connections currently held by the pool
+   */
+  public synchronized int getIdleCount() {
+    int count = 0;
+    for (ArrayDeque<Connection> idle : idleMap.values()) {
+      count += idle.size();
+    }
+    return count;
+  }
+
+  /**
+   * HTTP GET the given URL. The caller must close() the returned response.
+   *
+   * @param url resource to retrieve
+   * @param msTimeout connect and read timeout
+   * @return response with status, headers and body
+   */
+  public HttpResponse get(URL url, int msTimeout) throws IOException {
+    return get(url, msTimeout, null);
+  }
+
+  /**
+   * HTTP GET the given URL with additional request headers. The caller must close() the returned response.
+   *
+   * @param url resource to retrieve
+   * @param msTimeout connect and read timeout
+   * @param headers additional request headers or null
+   * @return response with status, headers and body
+   */
+  public HttpResponse get(URL url, int msTimeout, Map<String, String> headers) throws IOException {
+    return get(url, msTimeout, headers, null);
+  }
+
+  /**
+   * HTTP GET that can be aborted from another thread by the given call
+   */
+  HttpResponse get(URL url, int msTimeout, Map<String, String> headers, HttpCall call) throws IOException {
+    for (int redirects = 0; ; redirects++) {
+      HttpResponse response = request(url, msTimeout, headers, call);
+      if (call != null) {
+        call.attach(response);
+      }
+      String location = response.getHeader("Location");
+      if (location == null || redirects >= MAX_REDIRECTS || !isRedirect(response.getStatus())) {
+        return response;
+      }
+      response.close();
+      url = new URL(url, location);
+      logger.debug("Redirected to {}", url);
+    }
+  }
+
+  private static boolean isRedirect(int status) {
+    return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+  }
+
+  private HttpResponse request(URL url, int msTimeout, Map<String, String> headers, HttpCall call)
+      throws IOException {
+    if (call != null) {
+      call.checkAborted();
+    }
+    if (!"http".equalsIgnoreCase(url.getProtocol())) {
+      return openURLConnection(url, msTimeout, headers);
+    }
+    String host = url.getHost();
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    String key = host + ":" + port;
+    for (int attempt = 0; ; attempt++) {
+      Connection conn = checkout(key);
+      boolean reused = conn != null;
+      if (reused) {
+        hits.incrementAndGet();
+      } else {
+        misses.incrementAndGet();
+        conn = connect(key, host, port, msTimeout);
+      }
+      if (call != null) {
+        call.attach(conn);
+      }
+      try {
+        conn.socket.setSoTimeout(msTimeout);
+        writeRequest(conn, url, host, port, headers);
+        return readResponse(conn, url);
+      } catch (IOException e) {
+        conn.close();
+        if (reused && !conn.responseStarted && attempt == 0 && (call == null || !call.isAborted())) {
+          logger.debug("Stale pooled connection {} => {}", key, e.getMessage());
+          continue; // server closed idle keep-alive connection
+        }
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Close idle connections that have exceeded the idle timeout
+   */
+  public synchronized void evictIdle() {
+    long now = System.currentTimeMillis();
+    Iterator<ArrayDeque<Connection>> itIdle = idleMap.values().iterator();
+    while (itIdle.hasNext()) {
+      ArrayDeque<Connection> idle = itIdle.next();
+      Iterator<Connection> it = idle.iterator();
+      while (it.hasNext()) {
+        Connection conn = it.next();
+        if (isExpired(conn, now)) {
+          it.remove();
+          evict(conn);
+        }
+      }
+      if (idle.isEmpty()) {
+        itIdle.remove();
+      }
+    }
+  }
+
+  /**
+   * Close all idle connections
+   */
+  public synchronized void clear() {
+    for (ArrayDeque<Connection> idle : idleMap.values()) {
+      for (Connection conn : idle) {
+        conn.close();
+      }
+    }
+    idleMap.clear();
+  }
+
+  private boolean isExpired(Connection conn, long now) {
+    return now - conn.idleSince > msIdleTimeout || conn.socket.isClosed();
+  }
+
+  private void evict(Connection conn) {
+    evictions.incrementAndGet();
+    conn.close();
+  }
+
+  private synchronized Connection checkout(String key) {
+    ArrayDeque<Connection> idle = idleMap.get(key);
+    if (idle == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    Connection conn;
+    while ((conn = idle.pollLast()) != null) {
+      if (isExpired(conn, now)) {
+        evict(conn);
+      } else {
+        conn.responseStarted = false;
+        return conn;
+      }
+    }
+    return null;
+  }
+
+  synchronized void release(Connection conn) {
+    ArrayDeque<Connection> idle = idleMap.get(conn.key);
+    if (idle == null) {
+      idle = new ArrayDeque<Connection>();
+      idleMap.put(conn.key, idle);
+    }
+    if (idle.size() >= maxIdlePerHost) {
+      Connection oldest = idle.pollFirst();
+      if (oldest == null) {
+        conn.close(); // maxIdlePerHost == 0
+        return;
+      }
+      evict(oldest);
+    }
+    conn.idleSince = System.currentTimeMillis();
+    idle.addLast(conn);
+  }
+
+  private Connection connect(String key, String host, int port, int msTimeout) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.connect(new InetSocketAddress(host, port), msTimeout);
+      return new Connection(key, socket);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private void writeRequest(Connection conn, URL url, String host, int port, Map<String, String> headers)
+      throws IOException {
+    String file = url.getFile();
+    StringBuilder request = new StringBuilder(128);
+    request.append("GET ").append(file.length() == 0 ? "/" : file).append(" HTTP/1.1\r\n");
+    request.append("Host: ").append(host);
+    if (port != url.getDefaultPort()) {
+      request.append(':').append(port);
+    }
+    request.append("\r\n");
+    request.append("Connection: keep-alive\r\n");
+    request.append("Accept-Encoding: identity\r\n");
+    request.append("User-Agent: firerest-client\r\n");
+    if (headers != null) {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+      }
+    }
+    request.append("\r\n");
+    conn.out.write(request.toString().getBytes("ISO-8859-1"));
+    conn.out.flush();
+  }
+
+  private HttpResponse readResponse(Connection conn, URL url) throws IOException {
+    String statusLine;
+    int status;
+    TreeMap<String, String> headers;
+    do {
+      statusLine = readLine(conn.in);
+      if (statusLine == null) {
+        throw new IOException("Connection closed by server: " + url);
+      }
+      conn.responseStarted = true;
+      if (!statusLine.startsWith("HTTP/")) {
+        throw new IOException("Invalid HTTP status line: " + statusLine);
+      }
+      int sp1 = statusLine.indexOf(' ');
+      int sp2 = statusLine.indexOf(' ', sp1 + 1);
+      try {
+        status = Integer.parseInt(sp2 < 0 ? statusLine.substring(sp1 + 1) : statusLine.substring(sp1 + 1, sp2));
+      } catch (RuntimeException e) {
+        throw new IOException("Invalid HTTP status line: " + statusLine);
+      }
+      headers = readHeaders(conn.in);
+    } while (100 <= status && status < 200);
+
+    String connection = headers.get("Connection");
+    boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+        ? !"close".equalsIgnoreCase(connection)
+        : "keep-alive".equalsIgnoreCase(connection);
+    String transferEncoding = headers.get("Transfer-Encoding");
+    String contentLength = headers.get("Content-Length");
+    BodyInputStream body;
+    if (status == 204 || status == 304) {
+      body = new FixedLengthInputStream(conn.in, 0);
+    } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+      body = new ChunkedInputStream(conn.in);
+    } else if (contentLength != null) {
+      try {
+        body = new FixedLengthInputStream(conn.in, Long.parseLong(contentLength.trim()));
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid Content-Length: " + contentLength);
+      }
+    } else {
+      body = new FixedLengthInputStream(conn.in, Long.MAX_VALUE);
+      keepAlive = false; // body is delimited by connection close
+    }
+    return new HttpResponse(url, status, headers, body, this, conn, keepAlive);
+  }
+
+  private HttpResponse openURLConnection(URL url, int msTimeout, Map<String, String> headers) throws IOException {
+    URLConnection urlconn = url.openConnection();
+    urlconn.setReadTimeout(msTimeout);
+    urlconn.setConnectTimeout(msTimeout);
+    if (headers != null) {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        urlconn.setRequestProperty(header.getKey(), header.getValue());
+      }
+    }
+    int status = 200;
+    InputStream body;
+    if (urlconn instanceof HttpURLConnection) {
+      HttpURLConnection httpconn = (HttpURLConnection) urlconn;
+      httpconn.setRequestMethod("GET");
+      status = httpconn.getResponseCode();
+      body = status >= 400 ? httpconn.getErrorStream() : httpconn.getInputStream();
+    } else {
+      body = urlconn.getInputStream();
+    }
+    TreeMap<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    for (Map.Entry<String, java.util.List<String>> header : urlconn.getHeaderFields().entrySet()) {
+      if (header.getKey() != null && !header.getValue().isEmpty()) {
+        responseHeaders.put(header.getKey(), header.getValue().get(0));
+      }
+    }
+    return new HttpResponse(url, status, responseHeaders, body);
+  }
+
+  private static TreeMap<String, String> readHeaders(InputStream in) throws IOException {
+    TreeMap<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    String line;
+    while ((line = readLine(in)) != null && line.length() > 0) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        String prev = headers.get(name);
+        headers.put(name, prev == null ? value : prev + ", " + value);
+      }
+    }
+    return headers;
+  }
+
+  /**
+   * Read a CRLF or LF terminated ISO-8859-1 line.
+   *
+   * @return line without terminator or null at end of stream
+   */
+  static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder(64);
+    int c;
+    while ((c = in.read()) >= 0) {
+      if (c == '\n') {
+        int len = line.length();
+        if (len > 0 && line.charAt(len - 1) == '\r') {
+          line.setLength(len - 1);
+        }
+        return line.toString();
+      }
+      line.append((char) c);
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
+  /**
+   * Pooled socket connection
+   */
+  static class Connection {
+    final String key;
+    final Socket socket;
+    final InputStream in;
+    final OutputStream out;
+    long idleSince;
+    boolean responseStarted;
+
+    Connection(String key, Socket socket) throws IOException {
+      this.key = key;
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+      this.out = socket.getOutputStream();
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Response body stream that knows whether it has been read to completion
+   */
+  static abstract class BodyInputStream extends InputStream {
+    long bytesRead;
+
+    abstract boolean isComplete();
+  }
+
+  static class FixedLengthInputStream extends BodyInputStream {
+    private final InputStream in;
+    private long remaining;
+
+    FixedLengthInputStream(InputStream in, long length) {
+      this.in = in;
+      this.remaining = length;
+    }
+
+    @Override
+    boolean isComplete() {
+      return remaining == 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int c = in.read();
+      if (c < 0) {
+        remaining = remaining == Long.MAX_VALUE ? 0 : -1;
+      } else {
+        remaining--;
+        bytesRead++;
+      }
+      return c;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = in.read(buf, off, (int) Math.min(len, remaining));
+      if (n < 0) {
+        remaining = remaining == Long.MAX_VALUE ? 0 : -1;
+      } else {
+        remaining -= n;
+        bytesRead += n;
+      }
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), Math.max(0, remaining));
+    }
+  }
+
+  static class ChunkedInputStream extends BodyInputStream {
+    private final InputStream in;
+    private long chunkRemaining;
+    private boolean complete;
+
+    ChunkedInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    boolean isComplete() {
+      return complete;
+    }
+
+    private boolean nextChunk() throws IOException {
+      if (complete) {
+        return false;
+      }
+      if (chunkRemaining == 0) {
+        String line = readLine(in);
+        if (line != null && line.length() == 0) {
+          line = readLine(in); // CRLF that terminates previous chunk
+        }
+        if (line == null) {
+          throw new IOException("Unexpected end of chunked response");
+        }
+        int semi = line.indexOf(';');
+        try {
+          chunkRemaining = Long.parseLong((semi < 0 ? line : line.substring(0, semi)).trim(), 16);
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid chunk size: " + line);
+        }
+        if (chunkRemaining == 0) {
+          while ((line = readLine(in)) != null && line.length() > 0) {
+            // discard trailers
+          }
+          complete = true;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+      int c = in.read();
+      if (c < 0) {
+        throw new IOException("Unexpected end of chunked response");
+      }
+      chunkRemaining--;
+      bytesRead++;
+      return c;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+      int n = in.read(buf, off, (int) Math.min(len, chunkRemaining));
+      if (n < 0) {
+        throw new IOException("Unexpected end of chunked response");
+      }
+      chunkRemaining -= n;
+      bytesRead += n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return complete ? 0 : (int) Math.min(in.available(), chunkRemaining);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package org.firepick;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Map;
+
+/**
+ * HTTP response returned by HttpPool. Closing the response drains any unread body
+ * so that the underlying keep-alive connection can be reused.
+ */
+public class HttpResponse implements Closeable {
+  private static final int MAX_DRAIN = 64 * 1024;
+  private static final int OPEN = 0;
+  private static final int CLOSING = 1;
+  private static final int CLOSED = 2;
+
+  private final URL url;
+  private final int status;
+  private final Map<String, String> headers;
+  private final InputStream body;
+  private final HttpPool pool;
+  private final HttpPool.Connection conn;
+  private final boolean keepAlive;
+  private int state = OPEN;
+  private boolean aborted;
+
+  HttpResponse(URL url, int status, Map<String, String> headers, InputStream body,
+               HttpPool pool, HttpPool.Connection conn, boolean keepAlive) {
+    this.url = url;
+    this.status = status;
+    this.headers = headers;
+    this.body = body;
+    this.pool = pool;
+    this.conn = conn;
+    this.keepAlive = keepAlive;
+  }
+
+  HttpResponse(URL url, int status, Map<String, String> headers, InputStream body) {
+    this(url, status, headers, body, null, null, false);
+  }
+
+  public URL getURL() {
+    return url;
+  }
+
+  /**
+   * Return HTTP status code (e.g., 200)
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Return value of given response header (case-insensitive) or null
+   */
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public String getContentType() {
+    return headers.get("Content-Type");
+  }
+
+  /**
+   * Return the charset parameter of the Content-Type header
+   *
+   * @param defaultCharset charset to return if the response does not specify a supported charset
+   */
+  public Charset getCharset(Charset defaultCharset) {
+    String contentType = getContentType();
+    if (contentType != null) {
+      for (String param : contentType.split(";")) {
+        param = param.trim();
+        if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+          String name = param.substring(8).trim().replace("\"", "");
+          try {
+            return Charset.forName(name);
+          } catch (IllegalCharsetNameException e) {
+            return defaultCharset;
+          } catch (UnsupportedCharsetException e) {
+            return defaultCharset;
+          }
+        }
+      }
+    }
+    return defaultCharset;
+  }
+
+  /**
+   * Return response body.
+   *
+   * @throws IOException if the server returned an HTTP error status
+   */
+  public InputStream getInputStream() throws IOException {
+    if (status == 404 || status == 410) {
+      throw new FileNotFoundException(url.toString());
+    }
+    if (status >= 400) {
+      throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+    }
+    return body;
+  }
+
+  /**
+   * Return number of body bytes read so far or -1 if unknown (e.g., for non-HTTP URLs)
+   */
+  public long getBytesRead() {
+    return body instanceof HttpPool.BodyInputStream ? ((HttpPool.BodyInputStream) body).bytesRead : -1;
+  }
+
+  /**
+   * Drain unread body and return connection to its pool.
+   * The connection is closed instead if the body is too large to drain or the server does not keep alive.
+   */
+  public void close() {
+    synchronized (this) {
+      if (state != OPEN) {
+        return;
+      }
+      state = CLOSING;
+    }
+    boolean reusable = false;
+    try {
+      if (body != null && (conn == null || keepAlive)) {
+        reusable = drain();
+      }
+    } catch (IOException e) {
+      reusable = false;
+    }
+    synchronized (this) {
+      state = CLOSED;
+      if (conn == null) {
+        closeBody();
+      } else if (reusable && keepAlive && !aborted && ((HttpPool.BodyInputStream) body).isComplete()) {
+        pool.release(conn);
+      } else {
+        conn.close();
+      }
+    }
+  }
+
+  /**
+   * Close the underlying connection without reuse. Safe to call from another thread
+   * to interrupt a blocked read. Has no effect once the response has been closed.
+   */
+  public synchronized void abort() {
+    if (state == CLOSED) {
+      return;
+    }
+    aborted = true;
+    if (conn == null) {
+      closeBody();
+    } else {
+      conn.close();
+    }
+  }
+
+  private void closeBody() {
+    try {
+      if (body != null) {
+        body.close();
+      }
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private boolean drain() throws IOException {
+    if (body.read() < 0) {
+      return true; // body was fully consumed
+    }
+    byte[] buf = new byte[4096];
+    int drained = 1;
+    int n;
+    while ((n = body.read(buf)) >= 0) {
+      drained += n;
+      if (drained > MAX_DRAIN) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
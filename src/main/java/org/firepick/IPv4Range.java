@@ -0,0 +1,181 @@
+package org.firepick;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Range of IPv4 addresses held as primitive longs (see IPv4Scanner.asLongAddress()).
+ * Ranges are written in CIDR notation (e.g., "10.1.0.0/20") or as a single address.
+ */
+public class IPv4Range {
+  /** Smallest supported prefix length. A /8 has 16M addresses. */
+  public static final int MIN_PREFIX = 8;
+
+  private final long start;
+  private final int count;
+
+  /**
+   * @param start first address
+   * @param count number of addresses
+   */
+  public IPv4Range(long start, int count) {
+    if (start < 0 || 0xffffffffL < start) {
+      throw new FireRESTException("Expected IPv4 address 0..0xffffffff");
+    }
+    if (count < 0 || 0x100000000L < start + count) {
+      throw new FireRESTException("Expected IPv4 range within 0.0.0.0..255.255.255.255");
+    }
+    this.start = start;
+    this.count = count;
+  }
+
+  /**
+   * Parse an address range such as "10.1.0.0/20" or "10.1.0.7". Host bits of a CIDR
+   * address are ignored, so "10.1.2.3/20" is the same range as "10.1.0.0/20".
+   */
+  public static IPv4Range parse(String cidr) {
+    String text = cidr.trim();
+    int slash = text.indexOf('/');
+    int prefix = 32;
+    if (slash >= 0) {
+      try {
+        prefix = Integer.parseInt(text.substring(slash + 1).trim());
+      } catch (NumberFormatException e) {
+        throw new FireRESTException("Could not parse CIDR range " + cidr);
+      }
+      text = text.substring(0, slash).trim();
+    }
+    if (prefix < MIN_PREFIX || 32 < prefix) {
+      throw new FireRESTException("Expected CIDR prefix " + MIN_PREFIX + "..32: " + cidr);
+    }
+    long addr = parseAddress(text, cidr);
+    long count = 1L << (32 - prefix);
+    return new IPv4Range(addr & ~(count - 1), (int) count);
+  }
+
+  /**
+   * Parse comma or whitespace separated address ranges, e.g., "10.1.0.0/20, 10.2.0.0/24"
+   */
+  public static List<IPv4Range> parseList(String cidrs) {
+    List<IPv4Range> result = new ArrayList<IPv4Range>();
+    for (String cidr : cidrs.split("[,\\s]+")) {
+      if (cidr.length() > 0) {
+        result.add(parse(cidr));
+      }
+    }
+    return result;
+  }
+
+  private static long parseAddress(String text, String cidr) {
+    String[] octets = text.split("\\.", -1);
+    if (octets.length != 4) {
+      throw new FireRESTException("Could not parse CIDR range " + cidr);
+    }
+    long addr = 0;
+    for (String octet : octets) {
+      int value;
+      try {
+        value = Integer.parseInt(octet);
+      } catch (NumberFormatException e) {
+        throw new FireRESTException("Could not parse CIDR range " + cidr);
+      }
+      if (value < 0 || 255 < value) {
+        throw new FireRESTException("Could not parse CIDR range " + cidr);
+      }
+      addr = (addr << 8) | value;
+    }
+    return addr;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public boolean contains(long addr) {
+    return start <= addr && addr < start + count;
+  }
+
+  /**
+   * Return true if any of the given ranges contains the given IPv4 address
+   */
+  public static boolean contains(List<IPv4Range> ranges, InetAddress addr) {
+    if (!(addr instanceof Inet4Address)) {
+      return false;
+    }
+    long longAddr = IPv4Scanner.asLongAddress(addr);
+    for (IPv4Range range : ranges) {
+      if (range.contains(longAddr)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the given ranges sorted by start address, with overlapping and adjacent ranges
+   * merged so that no address occurs twice (e.g., two interfaces on the same /24)
+   */
+  public static List<IPv4Range> merge(List<IPv4Range> ranges) {
+    List<IPv4Range> sorted = new ArrayList<IPv4Range>(ranges);
+    Collections.sort(sorted, new Comparator<IPv4Range>() {
+      public int compare(IPv4Range a, IPv4Range b) {
+        return Long.compare(a.start, b.start);
+      }
+    });
+    List<IPv4Range> result = new ArrayList<IPv4Range>();
+    IPv4Range last = null;
+    for (IPv4Range range : sorted) {
+      long end = range.start + range.count;
+      if (last != null && range.start <= last.start + last.count && end - last.start <= Integer.MAX_VALUE) {
+        if (end > last.start + last.count) {
+          last = new IPv4Range(last.start, (int) (end - last.start));
+          result.set(result.size() - 1, last);
+        }
+      } else {
+        result.add(range);
+        last = range;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof IPv4Range)) {
+      return false;
+    }
+    IPv4Range that = (IPv4Range) obj;
+    return start == that.start && count == that.count;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (start * 31 + count);
+  }
+
+  /**
+   * Return the range in CIDR notation if possible and as "first+count" otherwise
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(start >> 24).append('.').append((start >> 16) & 0xff).append('.')
+      .append((start >> 8) & 0xff).append('.').append(start & 0xff);
+    if (Integer.bitCount(count) == 1 && (start & (count - 1)) == 0) {
+      if (count > 1) {
+        sb.append('/').append(32 - Integer.numberOfTrailingZeros(count));
+      }
+    } else {
+      sb.append('+').append(count);
+    }
+    return sb.toString();
+  }
+}
@@ -2,6 +2,7 @@ package org.firepick;
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,6 +13,8 @@ public class IPv4Scanner implements Runnable {
   long ipend;
   int msTimeout;
   List<InetAddress> addresses = new ArrayList<InetAddress>();
+  ScanListener listener;
+  AtomicBoolean stopped = new AtomicBoolean();
 
   /** @see localhostNetworkAddresses */
   @Deprecated
@@ -66,6 +69,84 @@ public class IPv4Scanner implements Runnable {
    * @param msTimeout maximum time to wait for each host
    */
   public static Collection<InetAddress> scanRange(InetAddress addr, int count, int msTimeout) {
+    Collection<InetAddress> result = new ArrayList<InetAddress>();
+    for (InetAddress start: startAddresses(addr)) {
+      result.addAll(scanRangeCore(start, count, msTimeout));
+    }
+
+    return result;
+  }
+
+  /**
+   * Scan a range of InetAddresses starting with the given address, delivering each host
+   * to the listener as soon as it answers. Returns when the scan completes or the listener
+   * stops the scan.
+   *
+   * @param start starting address of search; null implies subnetAddress0(null,24)
+   * @param count number of addresses in range
+   * @param msTimeout maximum time to wait for each host
+   * @param listener receives hosts in the order they answer; calls are serialized
+   */
+  public static void scanRange(InetAddress addr, int count, int msTimeout, ScanListener listener) {
+    AtomicBoolean stopped = new AtomicBoolean();
+    for (InetAddress start: startAddresses(addr)) {
+      if (stopped.get()) {
+	break;
+      }
+      scanRangeCore(start, count, msTimeout, listener, stopped);
+    }
+  }
+
+  /**
+   * Scan a range of InetAddresses starting with the given address for hosts that
+   * accept TCP connections on any of the given ports. All probes are driven by the calling
+   * thread with non-blocking connects (see TCPScanner).
+   *
+   * @param start starting address of search; null implies subnetAddress0(null,24)
+   * @param count number of addresses in range
+   * @param msTimeout maximum time to wait for each connect
+   * @param ports TCP ports to probe (e.g., 8080, 80)
+   */
+  public static Collection<InetAddress> scanRangeTCP(InetAddress addr, int count, int msTimeout, int... ports) {
+    List<IPv4Range> ranges = ranges(addr, count);
+    logger.info("scanning {} on ports {}", ranges, Arrays.toString(ports));
+    return new TCPScanner().withTimeout(msTimeout).withPorts(ports).scan(ranges);
+  }
+
+  /**
+   * Streaming variant of scanRangeTCP that delivers each host to the listener on the calling
+   * thread as soon as it accepts a connection. Returns when the scan completes or the listener
+   * stops the scan.
+   *
+   * @param start starting address of search; null implies subnetAddress0(null,24)
+   * @param count number of addresses in range
+   * @param msTimeout maximum time to wait for each connect
+   * @param listener receives hosts in the order they answer
+   * @param ports TCP ports to probe (e.g., 8080, 80)
+   */
+  public static void scanRangeTCP(InetAddress addr, int count, int msTimeout,
+      ScanListener listener, int... ports) {
+    List<IPv4Range> ranges = ranges(addr, count);
+    logger.info("scanning {} on ports {}", ranges, Arrays.toString(ports));
+    new TCPScanner().withTimeout(msTimeout).withPorts(ports).scan(ranges, listener);
+  }
+
+  /**
+   * Return merged ranges of count addresses starting at the /24 subnet of the given address
+   * or of every local network address
+   */
+  static List<IPv4Range> ranges(InetAddress addr, int count) {
+    List<IPv4Range> result = new ArrayList<IPv4Range>();
+    for (InetAddress start: startAddresses(addr)) {
+      result.add(new IPv4Range(asLongAddress(start), count));
+    }
+    return IPv4Range.merge(result);
+  }
+
+  /**
+   * Return the /24 subnet start address of the given address or of every local network address
+   */
+  private static Collection<InetAddress> startAddresses(InetAddress addr) {
     Collection<InetAddress> addresses = new ArrayList<InetAddress>();
     Collection<InetAddress> result = new ArrayList<InetAddress>();
     if (addr == null) {
@@ -80,15 +161,23 @@ public class IPv4Scanner implements Runnable {
 
     for (InetAddress a: addresses) {
       if (a instanceof Inet4Address) {
-	InetAddress start = subnetAddress0(a, 24);
-	result.addAll(scanRangeCore(start, count, msTimeout));
+	result.add(subnetAddress0(a, 24));
       }
     }
-
     return result;
   }
 
   static Collection<InetAddress> scanRangeCore(InetAddress start, int count, int msTimeout) {
+    return scanRangeCore(start, count, msTimeout, null, new AtomicBoolean());
+  }
+
+  /**
+   * Scan with one thread per group of addresses. Each host found is passed to the
+   * listener (if any) while holding the stopped lock. Once the listener returns false,
+   * the scanner threads quit after their current probe.
+   */
+  static Collection<InetAddress> scanRangeCore(InetAddress start, int count, int msTimeout,
+      ScanListener listener, AtomicBoolean stopped) {
     Collection<InetAddress> result = new ArrayList<InetAddress>();
     if (!(start instanceof Inet4Address)) {
       return result;
@@ -108,6 +197,8 @@ public class IPv4Scanner implements Runnable {
 	InetAddress iaddr = asInetAddress(addr);
 	long nProbes = Math.min(addrEnd, addr + probesPerThread) - addr;
 	IPv4Scanner scanner = new IPv4Scanner(iaddr, (int) nProbes, msTimeout);
+	scanner.listener = listener;
+	scanner.stopped = stopped;
 	scanners.add(scanner);
       } catch (UnknownHostException e) {
 	throw new FireRESTException(e); // should never happen since addr is always valid
@@ -192,11 +283,11 @@ public class IPv4Scanner implements Runnable {
 
   public void run () {
     try {
-      for (long ip=ipstart; ip < ipend; ip++) {
+      for (long ip=ipstart; ip < ipend && !stopped.get(); ip++) {
 	InetAddress addr = asInetAddress(ip);
 	if (addr.isReachable(msTimeout)) {
-	  logger.info("Found host {} {}", addr.getHostAddress(), addr.getCanonicalHostName());
-	  addresses.add(addr);
+	  logger.info("Found host {}", addr.getHostAddress());
+	  found(addr);
 	} else {
 	  if (logger.isDebugEnabled()) {
 	    logger.debug("Host {} no reply after {}ms", addr.getHostAddress(), msTimeout);
@@ -208,4 +299,16 @@ public class IPv4Scanner implements Runnable {
     }
   }
 
+  private void found(InetAddress addr) {
+    synchronized (stopped) {
+      if (stopped.get()) {
+	return;
+      }
+      addresses.add(addr);
+      if (listener != null && !listener.found(addr)) {
+	stopped.set(true);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,254 @@
+package org.firepick;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Image decoder for FireREST camera images. Unlike ImageIO.read(), ImageReaders are looked up once
+ * per MIME type and reused, decoding is buffered in memory rather than in a cache file, and images can
+ * be decoded into a caller-supplied or pooled destination BufferedImage.
+ * A source region and subsampling can be configured to decode a region of interest or a reduced preview.
+ */
+public class ImageDecoder {
+  static Logger logger = LoggerFactory.getLogger(ImageDecoder.class);
+  private static final ImageDecoder defaultDecoder = new ImageDecoder();
+
+  private final Pools pools;
+  private Rectangle sourceRegion;
+  private int xSubsampling = 1;
+  private int ySubsampling = 1;
+
+  public ImageDecoder() {
+    this(8);
+  }
+
+  /**
+   * @param maxPooledImages maximum number of recycled destination images retained for reuse
+   */
+  public ImageDecoder(int maxPooledImages) {
+    this.pools = new Pools(maxPooledImages);
+  }
+
+  private ImageDecoder(ImageDecoder decoder) {
+    this.pools = decoder.pools;
+    this.sourceRegion = decoder.sourceRegion;
+    this.xSubsampling = decoder.xSubsampling;
+    this.ySubsampling = decoder.ySubsampling;
+  }
+
+  /**
+   * Return the decoder shared by FireREST instances that do not specify their own
+   */
+  public static ImageDecoder getDefault() {
+    return defaultDecoder;
+  }
+
+  /**
+   * Return a decoder that only decodes the given region of the source image.
+   * The returned decoder shares readers and pooled images with this decoder.
+   *
+   * @param sourceRegion region of interest in source image pixels or null for the entire image
+   */
+  public ImageDecoder withSourceRegion(Rectangle sourceRegion) {
+    ImageDecoder result = new ImageDecoder(this);
+    result.sourceRegion = sourceRegion == null ? null : new Rectangle(sourceRegion);
+    return result;
+  }
+
+  /**
+   * Return a decoder that only decodes every xSubsampling'th column and ySubsampling'th row.
+   * The returned decoder shares readers and pooled images with this decoder.
+   */
+  public ImageDecoder withSubsampling(int xSubsampling, int ySubsampling) {
+    if (xSubsampling < 1 || ySubsampling < 1) {
+      throw new FireRESTException("Expected subsampling >= 1");
+    }
+    ImageDecoder result = new ImageDecoder(this);
+    result.xSubsampling = xSubsampling;
+    result.ySubsampling = ySubsampling;
+    return result;
+  }
+
+  public Rectangle getSourceRegion() {
+    return sourceRegion == null ? null : new Rectangle(sourceRegion);
+  }
+
+  /**
+   * Decode image from given stream.
+   *
+   * @param in encoded image
+   * @param mimeType MIME type of encoded image (e.g., "image/jpeg") or null to detect format from content
+   * @param destination image to decode into or null to use a recycled image.
+   *                    A destination whose size or type does not match the decoded image is ignored.
+   * @return decoded image, which is destination if it was used, or null if the format is not supported
+   */
+  public BufferedImage decode(InputStream in, String mimeType, BufferedImage destination) throws IOException {
+    ImageInputStream iis = new MemoryCacheImageInputStream(in);
+    try {
+      String key = mimeKey(mimeType);
+      ImageReader reader = key == null ? null : pools.borrowReader(key);
+      if (reader != null && !reader.getOriginatingProvider().canDecodeInput(iis)) {
+        logger.debug("Content does not match MIME type {}", mimeType);
+        pools.returnReader(key, reader);
+        reader = null;
+        key = null;
+      }
+      if (reader == null) {
+        Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+        if (!it.hasNext()) {
+          return null;
+        }
+        reader = it.next();
+        if (key == null) {
+          String[] mimeTypes = reader.getOriginatingProvider().getMIMETypes();
+          key = mimeTypes != null && mimeTypes.length > 0 ? mimeKey(mimeTypes[0]) : null;
+        }
+      }
+      try {
+        reader.setInput(iis, true, true);
+        return read(reader, destination);
+      } finally {
+        reader.setInput(null);
+        if (key != null) {
+          pools.returnReader(key, reader);
+        } else {
+          reader.dispose();
+        }
+      }
+    } finally {
+      iis.close();
+    }
+  }
+
+  /**
+   * Return an image that is no longer referenced by the caller so that it can be reused
+   * as a destination by decode().
+   */
+  public void recycle(BufferedImage image) {
+    if (image != null) {
+      pools.recycle(image);
+    }
+  }
+
+  private BufferedImage read(ImageReader reader, BufferedImage destination) throws IOException {
+    ImageReadParam param = reader.getDefaultReadParam();
+    Rectangle region = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+    if (sourceRegion != null) {
+      region = region.intersection(sourceRegion);
+      if (region.isEmpty()) {
+        throw new IOException("Source region " + sourceRegion + " is outside of image");
+      }
+      param.setSourceRegion(region);
+    }
+    if (xSubsampling > 1 || ySubsampling > 1) {
+      param.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+    }
+    int width = (region.width + xSubsampling - 1) / xSubsampling;
+    int height = (region.height + ySubsampling - 1) / ySubsampling;
+    BufferedImage target = destination;
+    if (target != null && !isCompatible(reader, target, width, height)) {
+      logger.debug("Ignoring incompatible destination image {}x{} type {}",
+          target.getWidth(), target.getHeight(), target.getType());
+      target = null;
+    }
+    if (target == null && destination == null) {
+      target = pools.takeImage(reader, width, height);
+    }
+    if (target != null) {
+      param.setDestination(target);
+    }
+    return reader.read(0, param);
+  }
+
+  static boolean isCompatible(ImageReader reader, BufferedImage image, int width, int height) throws IOException {
+    if (image.getWidth() != width || image.getHeight() != height || image.getType() == BufferedImage.TYPE_CUSTOM) {
+      return false;
+    }
+    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+    while (types.hasNext()) {
+      if (types.next().getBufferedImageType() == image.getType()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String mimeKey(String mimeType) {
+    if (mimeType == null) {
+      return null;
+    }
+    int semi = mimeType.indexOf(';');
+    String key = (semi < 0 ? mimeType : mimeType.substring(0, semi)).trim().toLowerCase();
+    return key.startsWith("image/") ? key : null;
+  }
+
+  /**
+   * ImageReaders and recycled images shared by decoders derived from the same decoder
+   */
+  private static class Pools {
+    private final int maxPooledImages;
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<ImageReader>> readers =
+        new ConcurrentHashMap<String, ConcurrentLinkedQueue<ImageReader>>();
+    private final ConcurrentLinkedQueue<BufferedImage> images = new ConcurrentLinkedQueue<BufferedImage>();
+    private final AtomicInteger imageCount = new AtomicInteger();
+
+    Pools(int maxPooledImages) {
+      this.maxPooledImages = maxPooledImages;
+    }
+
+    ImageReader borrowReader(String mimeType) {
+      ConcurrentLinkedQueue<ImageReader> queue = readers.get(mimeType);
+      ImageReader reader = queue == null ? null : queue.poll();
+      if (reader == null) {
+        Iterator<ImageReader> it = ImageIO.getImageReadersByMIMEType(mimeType);
+        reader = it.hasNext() ? it.next() : null;
+      }
+      return reader;
+    }
+
+    void returnReader(String mimeType, ImageReader reader) {
+      ConcurrentLinkedQueue<ImageReader> queue = readers.get(mimeType);
+      if (queue == null) {
+        readers.putIfAbsent(mimeType, new ConcurrentLinkedQueue<ImageReader>());
+        queue = readers.get(mimeType);
+      }
+      queue.offer(reader);
+    }
+
+    BufferedImage takeImage(ImageReader reader, int width, int height) throws IOException {
+      Iterator<BufferedImage> it = images.iterator();
+      while (it.hasNext()) {
+        BufferedImage image = it.next();
+        if (isCompatible(reader, image, width, height) && images.remove(image)) {
+          imageCount.decrementAndGet();
+          return image;
+        }
+      }
+      return null;
+    }
+
+    void recycle(BufferedImage image) {
+      if (imageCount.incrementAndGet() <= maxPooledImages) {
+        images.offer(image);
+      } else {
+        imageCount.decrementAndGet();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,442 @@
+package org.firepick;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Binds JSON objects onto POJOs and records in a single pass over the parsed JSON values,
+ * without intermediate JSONResult wrappers. For example, a calcOffset stage result binds to:
+ * <pre>
+ * class Stage {
+ *   Map&lt;String, Channel&gt; channels; // or Channel[] channels, indexed by key
+ *   Rect[] rects;
+ * }
+ * class Rect {
+ *   int x, y, width, height;
+ *   double angle;
+ *   int[] color;
+ * }
+ * </pre>
+ * POJOs need a no-argument constructor. Fields marked with JSONField are bound, or all non-static,
+ * non-transient fields if none are marked. Records (Java 16+) are bound through their canonical
+ * constructor. Supported field types are primitives and their wrappers, String, nested bound classes,
+ * arrays, List, Map with String keys, Object (the raw json-simple value) and JSONResult.
+ * Numbers are parsed from strings as required, as in JSONResult.getInt(). Missing values leave
+ * POJO fields unchanged and default record components to zero, false or null.
+ * Accessors are resolved once per class and invoked through MethodHandles.
+ */
+public class JSONBinder {
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+  private static final ClassValue<ClassBinding> bindings = new ClassValue<ClassBinding>() {
+    @Override
+    protected ClassBinding computeValue(Class<?> type) {
+      return new ClassBinding(type);
+    }
+  };
+
+  private JSONBinder() {
+  }
+
+  /**
+   * Bind a JSON object onto a new instance of the given type
+   *
+   * @return bound instance or null if json is null
+   * @throws FireRESTException if json is not an object or a value cannot be converted
+   */
+  public static <T> T bind(JSONResult json, Class<T> type) {
+    return type.cast(bindValue(json.value, type));
+  }
+
+  /**
+   * Parse and bind a JSON object from the given stream
+   */
+  public static <T> T bind(InputStream in, Charset charset, Class<T> type) {
+    return bind(new InputStreamReader(in, charset), type);
+  }
+
+  /**
+   * Parse and bind a JSON object from UTF-8 bytes, e.g., a raw response body
+   */
+  public static <T> T bind(byte[] json, Class<T> type) {
+    return bind(new ByteArrayInputStream(json), StandardCharsets.UTF_8, type);
+  }
+
+  /**
+   * Parse and bind a JSON object from the given reader
+   */
+  public static <T> T bind(Reader reader, Class<T> type) {
+    Object value;
+    try {
+      value = new JSONParser().parse(reader);
+    } catch (IOException e) {
+      throw new FireRESTException("Could not read JSON", e);
+    } catch (Exception e) {
+      throw new FireRESTException("Could not parse JSON", e);
+    }
+    return type.cast(bindValue(value, type));
+  }
+
+  private static Object bindValue(Object value, Class<?> type) {
+    if (value == null) {
+      return null;
+    }
+    if (!(value instanceof Map)) {
+      throw new FireRESTException(() -> "Expected JSON object for " + type.getName() + ":" + value, null);
+    }
+    return bindings.get(type).bind((Map<?, ?>) value);
+  }
+
+  /**
+   * Converts a json-simple value to a field value
+   */
+  private interface Converter {
+    Object convert(Object json);
+  }
+
+  private static final class ClassBinding {
+    final Class<?> type;
+    final String[] names;
+    final Converter[] converters;
+    final MethodHandle[] setters; // (Object, Object)void for POJOs
+    final MethodHandle constructor; // ()Object for POJOs, (Object[])Object for records
+    final Object[] defaults; // record component defaults
+
+    ClassBinding(Class<?> type) {
+      this.type = type;
+      try {
+        Object[] components = recordComponents(type);
+        if (components != null) {
+          int n = components.length;
+          names = new String[n];
+          converters = new Converter[n];
+          setters = null;
+          defaults = new Object[n];
+          Class<?>[] types = new Class<?>[n];
+          Method getName = components.getClass().getComponentType().getMethod("getName");
+          Method getType = components.getClass().getComponentType().getMethod("getType");
+          Method getGenericType = components.getClass().getComponentType().getMethod("getGenericType");
+          for (int i = 0; i < n; i++) {
+            String name = (String) getName.invoke(components[i]);
+            types[i] = (Class<?>) getType.invoke(components[i]);
+            JSONField annotation = type.getDeclaredField(name).getAnnotation(JSONField.class);
+            names[i] = annotation == null || annotation.value().isEmpty() ? name : annotation.value();
+            converters[i] = converter(types[i], (Type) getGenericType.invoke(components[i]));
+            defaults[i] = types[i].isPrimitive() ? Array.get(Array.newInstance(types[i], 1), 0) : null;
+          }
+          Constructor<?> ctor = type.getDeclaredConstructor(types);
+          ctor.setAccessible(true);
+          constructor = lookup.unreflectConstructor(ctor)
+              .asType(MethodType.methodType(Object.class, types))
+              .asSpreader(Object[].class, n);
+        } else {
+          List<Field> fields = boundFields(type);
+          int n = fields.size();
+          names = new String[n];
+          converters = new Converter[n];
+          setters = new MethodHandle[n];
+          defaults = null;
+          MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+          for (int i = 0; i < n; i++) {
+            Field field = fields.get(i);
+            field.setAccessible(true);
+            JSONField annotation = field.getAnnotation(JSONField.class);
+            names[i] = annotation == null || annotation.value().isEmpty() ? field.getName() : annotation.value();
+            converters[i] = converter(field.getType(), field.getGenericType());
+            setters[i] = lookup.unreflectSetter(field).asType(setterType);
+          }
+          Constructor<?> ctor = type.getDeclaredConstructor();
+          ctor.setAccessible(true);
+          constructor = lookup.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+        }
+      } catch (FireRESTException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new FireRESTException("Cannot bind " + type.getName(), e);
+      }
+    }
+
+    Object bind(Map<?, ?> json) {
+      int i = 0;
+      try {
+        if (setters == null) {
+          Object[] args = new Object[names.length];
+          for (i = 0; i < names.length; i++) {
+            Object value = json.get(names[i]);
+            args[i] = value == null ? defaults[i] : converters[i].convert(value);
+          }
+          return constructor.invokeExact(args);
+        }
+        Object result = constructor.invokeExact();
+        for (i = 0; i < names.length; i++) {
+          Object value = json.get(names[i]);
+          if (value != null) {
+            setters[i].invokeExact(result, converters[i].convert(value));
+          }
+        }
+        return result;
+      } catch (BindException e) {
+        throw e.enclosedBy(type.getName(), i < names.length ? names[i] : "");
+      } catch (Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new BindException(type.getName(), i < names.length ? names[i] : "", e);
+      }
+    }
+  }
+
+  /**
+   * Binding failure that gains the path of each enclosing field as it propagates,
+   * e.g., "Could not bind Stage.rects.color: Expected JSON array:7"
+   */
+  private static final class BindException extends FireRESTException {
+    private static final long serialVersionUID = 1L;
+    private String type;
+    private String path;
+
+    BindException(String type, String field, Throwable cause) {
+      super(() -> "Could not bind " + type + "." + field, cause);
+      this.type = type;
+      this.path = field;
+    }
+
+    BindException enclosedBy(String type, String field) {
+      this.type = type;
+      this.path = field + "." + path;
+      return this;
+    }
+
+    @Override
+    public String getMessage() {
+      if (path == null) {
+        // FireRESTException may log this exception from its constructor, before path is set
+        return super.getMessage();
+      }
+      return truncate("Could not bind " + type + "." + path + ": " + getCause().getMessage());
+    }
+  }
+
+  /**
+   * Return record components of the given type or null if it is not a record (or Java < 16)
+   */
+  private static Object[] recordComponents(Class<?> type) throws Exception {
+    Method isRecord;
+    try {
+      isRecord = Class.class.getMethod("isRecord");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+    if (!(Boolean) isRecord.invoke(type)) {
+      return null;
+    }
+    return (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+  }
+
+  private static List<Field> boundFields(Class<?> type) {
+    List<Field> all = new ArrayList<Field>();
+    List<Field> marked = new ArrayList<Field>();
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+          continue;
+        }
+        all.add(field);
+        if (field.isAnnotationPresent(JSONField.class)) {
+          marked.add(field);
+        }
+      }
+    }
+    return marked.isEmpty() ? all : marked;
+  }
+
+  private static Converter converter(final Class<?> type, Type genericType) {
+    if (type == int.class || type == Integer.class) {
+      return json -> json instanceof Number ? ((Number) json).intValue() : Integer.parseInt(string(json));
+    }
+    if (type == long.class || type == Long.class) {
+      return json -> json instanceof Number ? ((Number) json).longValue() : Long.parseLong(string(json));
+    }
+    if (type == double.class || type == Double.class) {
+      return json -> json instanceof Number ? ((Number) json).doubleValue() : Double.parseDouble(string(json));
+    }
+    if (type == float.class || type == Float.class) {
+      return json -> json instanceof Number ? ((Number) json).floatValue() : Float.parseFloat(string(json));
+    }
+    if (type == short.class || type == Short.class) {
+      return json -> json instanceof Number ? ((Number) json).shortValue() : Short.parseShort(string(json));
+    }
+    if (type == boolean.class || type == Boolean.class) {
+      return json -> json instanceof Boolean ? json : Boolean.parseBoolean(string(json));
+    }
+    if (type == String.class) {
+      return json -> json instanceof JSONStreamAware ? json.toString() : String.valueOf(json);
+    }
+    if (type == Object.class) {
+      return json -> json;
+    }
+    if (type == JSONResult.class) {
+      return json -> new JSONResult(json);
+    }
+    if (type.isArray()) {
+      return arrayConverter(type.getComponentType(), converter(type.getComponentType(), type.getComponentType()));
+    }
+    if (type == List.class || type == Collection.class || type == ArrayList.class) {
+      final Converter element = converter(typeArgument(genericType, 0), typeArgument(genericType, 0));
+      return json -> {
+        List<Object> result = new ArrayList<Object>();
+        for (Object item : elements(json)) {
+          result.add(item == null ? null : element.convert(item));
+        }
+        return result;
+      };
+    }
+    if (type == Map.class || type == LinkedHashMap.class) {
+      if (typeArgument(genericType, 0) != String.class) {
+        throw new FireRESTException("Expected Map with String keys: " + genericType);
+      }
+      final Converter element = converter(typeArgument(genericType, 1), typeArgument(genericType, 1));
+      return json -> {
+        if (!(json instanceof Map)) {
+          throw new FireRESTException(() -> "Expected JSON object:" + json, null);
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) json).entrySet()) {
+          Object item = entry.getValue();
+          result.put((String) entry.getKey(), item == null ? null : element.convert(item));
+        }
+        return result;
+      };
+    }
+    if (type.isPrimitive() || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+      throw new FireRESTException("Cannot bind type " + type.getName());
+    }
+    return new Converter() {
+      private ClassBinding binding; // resolved on first use, which allows recursive types
+
+      public Object convert(Object json) {
+        if (!(json instanceof Map)) {
+          throw new FireRESTException(() -> "Expected JSON object for " + type.getName() + ":" + json, null);
+        }
+        if (binding == null) {
+          binding = bindings.get(type);
+        }
+        return binding.bind((Map<?, ?>) json);
+      }
+    };
+  }
+
+  private static Converter arrayConverter(final Class<?> component, final Converter element) {
+    if (component == int.class) {
+      return json -> {
+        Object[] items = elements(json);
+        int[] result = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+          if (items[i] != null) {
+            result[i] = (Integer) element.convert(items[i]);
+          }
+        }
+        return result;
+      };
+    }
+    if (component == double.class) {
+      return json -> {
+        Object[] items = elements(json);
+        double[] result = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+          if (items[i] != null) {
+            result[i] = (Double) element.convert(items[i]);
+          }
+        }
+        return result;
+      };
+    }
+    return json -> {
+      Object[] items = elements(json);
+      Object result = Array.newInstance(component, items.length);
+      for (int i = 0; i < items.length; i++) {
+        if (items[i] != null) {
+          Array.set(result, i, element.convert(items[i]));
+        }
+      }
+      return result;
+    };
+  }
+
+  /**
+   * Return elements of a JSON array, or of a JSON object with integer keys placed by key
+   * (e.g., "channels":{"0":{...},"1":{...}})
+   */
+  private static Object[] elements(Object json) {
+    if (json instanceof List) {
+      return ((List<?>) json).toArray();
+    }
+    if (json instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) json;
+      Object[] result = new Object[map.size()];
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        result[index(entry.getKey(), result.length)] = entry.getValue();
+      }
+      return result;
+    }
+    throw new FireRESTException(() -> "Expected JSON array:" + json, null);
+  }
+
+  /**
+   * Return array index of the given key, which must be one of "0".."size-1" so that
+   * a JSON object with size keys fills an array of size elements
+   */
+  private static int index(Object key, int size) {
+    try {
+      int index = Integer.parseInt((String) key);
+      if (0 <= index && index < size) {
+        return index;
+      }
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    throw new FireRESTException("Expected array index 0.." + (size - 1) + ":" + key);
+  }
+
+
+  private static String string(Object json) {
+    if (json instanceof String) {
+      return ((String) json).trim();
+    }
+    throw new FireRESTException(() -> "Expected number or string:" + json, null);
+  }
+
+  private static Class<?> typeArgument(Type genericType, int index) {
+    if (genericType instanceof ParameterizedType) {
+      Type arg = ((ParameterizedType) genericType).getActualTypeArguments()[index];
+      if (arg instanceof Class) {
+        return (Class<?>) arg;
+      }
+      if (arg instanceof ParameterizedType) {
+        return (Class<?>) ((ParameterizedType) arg).getRawType();
+      }
+    }
+    return Object.class;
+  }
+}
@@ -0,0 +1,136 @@
+package org.firepick;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded HTTP validation cache of parsed JSON responses.
+ * Responses with an ETag or Last-Modified header are cached by URL. FireREST.getJSON() revalidates
+ * cached entries with If-None-Match/If-Modified-Since and reuses the parsed JSONResult when the
+ * server replies 304 Not Modified.
+ */
+public class JSONCache {
+  private static final JSONCache defaultCache = new JSONCache(256);
+
+  private final int maxEntries;
+  private final LinkedHashMap<String, Entry> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+
+  /**
+   * @param maxEntries maximum number of cached responses. Least recently used responses are discarded.
+   */
+  public JSONCache(final int maxEntries) {
+    if (maxEntries < 1) {
+      throw new FireRESTException("Expected maxEntries > 0");
+    }
+    this.maxEntries = maxEntries;
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, JSONCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Return the cache shared by FireREST instances that do not specify their own
+   */
+  public static JSONCache getDefault() {
+    return defaultCache;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Return number of 304 Not Modified responses answered from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Return number of requests for URLs with a cached response that the server reported as modified
+   * plus requests for URLs without a cached response
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Return number of responses stored in the cache
+   */
+  public long getStores() {
+    return stores.get();
+  }
+
+  /**
+   * Return cached response for given URL or null
+   */
+  synchronized Entry lookup(URL url) {
+    return entries.get(url.toExternalForm());
+  }
+
+  JSONResult hit(Entry entry) {
+    hits.incrementAndGet();
+    return entry.result;
+  }
+
+  /**
+   * Cache the given parsed response if it has validators, otherwise discard any cached response
+   */
+  void store(URL url, HttpResponse response, JSONResult result) {
+    misses.incrementAndGet();
+    String etag = response.getHeader("ETag");
+    String lastModified = response.getHeader("Last-Modified");
+    String key = url.toExternalForm();
+    if (etag == null && lastModified == null) {
+      synchronized (this) {
+        entries.remove(key);
+      }
+      return;
+    }
+    Entry entry = new Entry(etag, lastModified, result);
+    synchronized (this) {
+      entries.put(key, entry);
+    }
+    stores.incrementAndGet();
+  }
+
+  /**
+   * Cached response with the request headers that revalidate it
+   */
+  static class Entry {
+    final JSONResult result;
+    final Map<String, String> validators;
+
+    Entry(String etag, String lastModified, JSONResult result) {
+      this.result = result;
+      HashMap<String, String> headers = new HashMap<String, String>();
+      if (etag != null) {
+        headers.put("If-None-Match", etag);
+      }
+      if (lastModified != null) {
+        headers.put("If-Modified-Since", lastModified);
+      }
+      this.validators = Collections.unmodifiableMap(headers);
+    }
+  }
+}
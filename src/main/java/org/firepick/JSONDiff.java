@@ -0,0 +1,68 @@
+package org.firepick;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Structural difference of two JSON documents as the dotted paths of the changed subtrees,
+ * e.g., "cv.cve_map.calc-offset.firesight.0.minval". Objects are compared member by member
+ * and arrays of equal length element by element. An added or removed member, an array whose
+ * length changed or a value whose type changed is reported as one path. Unchanged subtrees
+ * shared by both documents (e.g., a JSONCache hit) are skipped without being traversed.
+ * Paths can be evaluated with JSONPath, provided object keys do not contain ".".
+ */
+public class JSONDiff {
+
+  private JSONDiff() {
+  }
+
+  /**
+   * Return paths of the subtrees that differ, in document order.
+   * The empty path denotes the root, e.g., when either document is null.
+   */
+  public static List<String> diff(JSONResult before, JSONResult after) {
+    List<String> result = new ArrayList<String>();
+    diff("", before.value, after.value, result);
+    return result;
+  }
+
+  private static void diff(String path, Object before, Object after, List<String> result) {
+    if (before == after) {
+      return;
+    }
+    if (before instanceof JSONObject && after instanceof JSONObject) {
+      JSONObject beforeObj = (JSONObject) before;
+      JSONObject afterObj = (JSONObject) after;
+      for (Object entryObj : beforeObj.entrySet()) {
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entryObj;
+        String childPath = child(path, entry.getKey());
+        if (afterObj.containsKey(entry.getKey())) {
+          diff(childPath, entry.getValue(), afterObj.get(entry.getKey()), result);
+        } else {
+          result.add(childPath);
+        }
+      }
+      for (Object key : afterObj.keySet()) {
+        if (!beforeObj.containsKey(key)) {
+          result.add(child(path, key));
+        }
+      }
+    } else if (before instanceof JSONArray && after instanceof JSONArray
+        && ((JSONArray) before).size() == ((JSONArray) after).size()) {
+      JSONArray beforeArray = (JSONArray) before;
+      JSONArray afterArray = (JSONArray) after;
+      for (int i = 0; i < beforeArray.size(); i++) {
+        diff(child(path, i), beforeArray.get(i), afterArray.get(i), result);
+      }
+    } else if (before == null || !before.equals(after)) {
+      result.add(path);
+    }
+  }
+
+  private static String child(String path, Object key) {
+    return path.length() == 0 ? String.valueOf(key) : path + "." + key;
+  }
+}
@@ -0,0 +1,21 @@
+package org.firepick;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field bound by JSONBinder. If a class has no marked fields, JSONBinder binds
+ * all of its non-static, non-transient fields.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface JSONField {
+
+  /**
+   * JSON key, which defaults to the field name
+   */
+  String value() default "";
+
+}
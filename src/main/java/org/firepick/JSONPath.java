@@ -0,0 +1,109 @@
+package org.firepick;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Precompiled dotted path into a JSON document, e.g., "calcOffset-stage.channels.0.dx".
+ * A path is compiled once and then evaluated against any JSONResult without creating
+ * the intermediate JSONResult for each step. Numeric segments select JSON array elements
+ * or JSON object members with that key, as with JSONResult.get(String).
+ * Missing members and out-of-range array elements evaluate to null.
+ */
+public class JSONPath {
+  private final String path;
+  final String[] keys;
+  final int[] indexes;
+
+  private JSONPath(String path) {
+    this.path = path;
+    this.keys = path.length() == 0 ? new String[0] : path.split("\\.", -1);
+    this.indexes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      indexes[i] = parseIndex(keys[i]);
+    }
+  }
+
+  /**
+   * Compile a dotted path. The empty path selects the root value.
+   *
+   * @param path dot-separated object keys and array indexes
+   * @return compiled path
+   */
+  public static JSONPath compile(String path) {
+    if (path == null) {
+      throw new NullPointerException("path cannot be null");
+    }
+    return new JSONPath(path);
+  }
+
+  /**
+   * Return the JSON value at this path
+   *
+   * @param root JSON value to traverse
+   * @return JSONResult for selected value, which isNull() if path does not exist
+   */
+  public JSONResult eval(JSONResult root) {
+    return new JSONResult(evalValue(root.value));
+  }
+
+  Object evalValue(Object value) {
+    for (int i = 0; i < keys.length && value != null; i++) {
+      value = step(value, keys[i], indexes[i]);
+    }
+    return value;
+  }
+
+  /**
+   * Return number of segments in path
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  static Object step(Object value, String key, int index) {
+    if (value instanceof JSONObject) {
+      return ((JSONObject) value).get(key);
+    }
+    if (value instanceof JSONArray) {
+      if (index < 0) {
+        throw new JSONResult(value).createException("Excpected JSONObject " + key + ":");
+      }
+      JSONArray array = (JSONArray) value;
+      return index < array.size() ? array.get(index) : null;
+    }
+    return null;
+  }
+
+  static int parseIndex(String key) {
+    int len = key.length();
+    if (len == 0 || len > 9) {
+      return -1;
+    }
+    int index = 0;
+    for (int i = 0; i < len; i++) {
+      char c = key.charAt(i);
+      if (c < '0' || '9' < c) {
+        return -1;
+      }
+      index = index * 10 + (c - '0');
+    }
+    return index;
+  }
+
+  @Override
+  public boolean equals(Object thatObj) {
+    return thatObj instanceof JSONPath && path.equals(((JSONPath) thatObj).path);
+  }
+
+  @Override
+  public int hashCode() {
+    return path.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+}
@@ -0,0 +1,141 @@
+package org.firepick;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of precompiled JSONPaths that are evaluated together in a single traversal.
+ * Paths that share a prefix (e.g., "calcOffset-stage.channels.0.dx" and "calcOffset-stage.channels.0.dy")
+ * walk the shared prefix once.
+ */
+public class JSONPathSet {
+  private final JSONPath[] paths;
+  private final Node root = new Node(null, -1);
+
+  private JSONPathSet(JSONPath[] paths) {
+    this.paths = paths;
+    for (int i = 0; i < paths.length; i++) {
+      Node node = root;
+      JSONPath path = paths[i];
+      for (int j = 0; j < path.keys.length; j++) {
+        node = node.child(path.keys[j], path.indexes[j]);
+      }
+      node.addTarget(i);
+    }
+    root.freeze();
+  }
+
+  /**
+   * Compile the given dotted paths
+   *
+   * @param paths see JSONPath.compile()
+   * @return path set whose results are ordered as the given paths
+   */
+  public static JSONPathSet compile(String... paths) {
+    JSONPath[] compiled = new JSONPath[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      compiled[i] = JSONPath.compile(paths[i]);
+    }
+    return new JSONPathSet(compiled);
+  }
+
+  public static JSONPathSet of(JSONPath... paths) {
+    return new JSONPathSet(paths.clone());
+  }
+
+  /**
+   * Return number of paths in set
+   */
+  public int size() {
+    return paths.length;
+  }
+
+  public JSONPath getPath(int index) {
+    return paths[index];
+  }
+
+  /**
+   * Evaluate all paths against given JSON value
+   *
+   * @param root JSON value to traverse
+   * @return results ordered as the paths of this set
+   */
+  public JSONResult[] eval(JSONResult root) {
+    JSONResult[] results = new JSONResult[paths.length];
+    eval(root, results);
+    return results;
+  }
+
+  /**
+   * Evaluate all paths against given JSON value
+   *
+   * @param root JSON value to traverse
+   * @param results array of at least size() elements that receives results ordered as the paths of this set
+   */
+  public void eval(JSONResult root, JSONResult[] results) {
+    Object[] values = new Object[paths.length];
+    evalValues(root.value, values);
+    for (int i = 0; i < values.length; i++) {
+      results[i] = new JSONResult(values[i]);
+    }
+  }
+
+  void evalValues(Object value, Object[] values) {
+    visit(root, value, values);
+  }
+
+  private static void visit(Node node, Object value, Object[] values) {
+    for (int target : node.targets) {
+      values[target] = value;
+    }
+    for (Node child : node.children) {
+      visit(child, value == null ? null : JSONPath.step(value, child.key, child.index), values);
+    }
+  }
+
+  /**
+   * Path prefix tree node
+   */
+  private static class Node {
+    final String key;
+    final int index;
+    Node[] children;
+    int[] targets;
+    private List<Node> childList = new ArrayList<Node>();
+    private List<Integer> targetList = new ArrayList<Integer>();
+
+    Node(String key, int index) {
+      this.key = key;
+      this.index = index;
+    }
+
+    Node child(String key, int index) {
+      for (Node child : childList) {
+        if (child.key.equals(key)) {
+          return child;
+        }
+      }
+      Node child = new Node(key, index);
+      childList.add(child);
+      return child;
+    }
+
+    void addTarget(int target) {
+      targetList.add(target);
+    }
+
+    void freeze() {
+      children = childList.toArray(new Node[childList.size()]);
+      targets = new int[targetList.size()];
+      for (int i = 0; i < targets.length; i++) {
+        targets[i] = targetList.get(i);
+      }
+      childList = null;
+      targetList = null;
+      for (Node child : children) {
+        child.freeze();
+      }
+    }
+  }
+
+}
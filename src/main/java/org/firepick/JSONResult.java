@@ -5,6 +5,16 @@ import org.slf4j.LoggerFactory;
 import org.json.simple.parser.*;
 import org.json.simple.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Fluent wrapper for JSON result returned by FireREST
  */
@@ -28,13 +38,41 @@ public class JSONResult {
     } else {
       try {
 	JSONParser parser = new JSONParser();
-	value = (JSONObject) parser.parse(json);
+	value = (JSONObject) parser.parse(json, containers);
       } catch (Exception e) {
-	throw new FireRESTException("Could not parse: " + json, e);
+	throw new FireRESTException(() -> "Could not parse: " + json, e);
       }
     }
   }
 
+  /**
+   * Parse JSON object from given stream without first reading it into a String
+   *
+   * @param in JSON stream
+   * @param charset encoding of stream
+   * @throw FireRESTException if json is invalid
+   */
+  public static JSONResult parse(InputStream in, Charset charset) {
+    return parse(new InputStreamReader(in, charset));
+  }
+
+  /**
+   * Parse JSON object from given reader without first reading it into a String
+   *
+   * @param reader JSON text
+   * @throw FireRESTException if json is invalid
+   */
+  public static JSONResult parse(Reader reader) {
+    try {
+      JSONParser parser = new JSONParser();
+      return new JSONResult((JSONObject) parser.parse(reader, containers));
+    } catch (IOException e) {
+      throw new FireRESTException("Could not read JSON", e);
+    } catch (Exception e) {
+      throw new FireRESTException("Could not parse JSON", e);
+    }
+  }
+
   /**
    * Advance current JSON value to specified element in JSON array.
    * Set current JSON value to null otherwise.
@@ -76,17 +114,68 @@ public class JSONResult {
     return new JSONResult(null);
   }
 
-  private FireRESTException createException(String msg) {
-    if (value instanceof JSONArray) {
-      return new FireRESTException(msg + ((JSONArray) value).toJSONString());
+  /**
+   * Return exception whose message shows the start of the current JSON value.
+   * The message is only built if requested.
+   */
+  FireRESTException createException(final String msg) {
+    final Object value = this.value;
+    return new FireRESTException(() -> msg + (value instanceof JSONStreamAware
+        ? toJSONString(value, FireRESTException.MAX_MESSAGE) : String.valueOf(value)), null);
+  }
+
+  /**
+   * Return JSON text of given value, serializing at most maxLength characters
+   */
+  static String toJSONString(Object value, int maxLength) {
+    BoundedWriter writer = new BoundedWriter(maxLength);
+    try {
+      JSONValue.writeJSONString(value, writer);
+    } catch (IOException e) {
+      // truncated
     }
-    if (value instanceof JSONObject) {
-      return new FireRESTException(msg + ((JSONObject) value).toJSONString());
+    return writer.toString();
+  }
+
+  private static class BoundedWriter extends Writer {
+    private static final IOException FULL = new IOException("full");
+    private final StringBuilder sb = new StringBuilder();
+    private final int maxLength;
+
+    BoundedWriter(int maxLength) {
+      this.maxLength = maxLength;
     }
-    if (value == null) {
-      return new FireRESTException(msg + "null");
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      int n = Math.min(len, maxLength - sb.length());
+      sb.append(cbuf, off, n);
+      if (n < len) {
+        throw FULL;
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      int n = Math.min(len, maxLength - sb.length());
+      sb.append(str, off, off + n);
+      if (n < len) {
+        throw FULL;
+      }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+      return sb.toString();
     }
-    throw new FireRESTException(msg + value.toString());
   }
 
   /**
@@ -144,6 +233,189 @@ public class JSONResult {
     throw createException("Expected number:");
   }
 
+  /**
+   * Return an int for current JSON value without boxing, parsing string values as required.
+   */
+  public int getAsInt(int defaultValue) {
+    return asInt(value, defaultValue);
+  }
+
+  /**
+   * Return a double for current JSON value without boxing, parsing string values as required.
+   */
+  public double getAsDouble(double defaultValue) {
+    return asDouble(value, defaultValue);
+  }
+
+  /**
+   * Return int value of given JSON value. Numbers are truncated but strings must hold an integer.
+   */
+  private static int asInt(final Object element, int defaultValue) {
+    if (element == null) {
+      return defaultValue;
+    }
+    if (element instanceof Number) {
+      return ((Number) element).intValue();
+    }
+    if (element instanceof String) {
+      try {
+        return Integer.parseInt((String) element);
+      } catch (NumberFormatException e) {
+        throw new FireRESTException(() -> "Expected integer:" + element, e);
+      }
+    }
+    throw new FireRESTException(() -> "Expected integer:" + toJSONString(element, FireRESTException.MAX_MESSAGE), null);
+  }
+
+  private static double asDouble(final Object element, double defaultValue) {
+    if (element == null) {
+      return defaultValue;
+    }
+    if (element instanceof Number) {
+      return ((Number) element).doubleValue();
+    }
+    if (element instanceof String) {
+      try {
+        return Double.parseDouble((String) element);
+      } catch (NumberFormatException e) {
+        throw new FireRESTException(() -> "Expected number:" + element, e);
+      }
+    }
+    throw new FireRESTException(() -> "Expected number:" + toJSONString(element, FireRESTException.MAX_MESSAGE), null);
+  }
+
+  /**
+   * Return number of elements of current JSON array or object, or zero otherwise
+   */
+  public int size() {
+    if (value instanceof JSONArray) {
+      return ((JSONArray) value).size();
+    }
+    if (value instanceof JSONObject) {
+      return ((JSONObject) value).size();
+    }
+    return 0;
+  }
+
+  /**
+   * Return element of current JSON array, or value of current JSON object with key index
+   * (e.g., "channels":{"0":{...}})
+   */
+  private Object element(int index) {
+    if (value instanceof JSONArray) {
+      return ((JSONArray) value).get(index);
+    }
+    return ((JSONObject) value).get(String.valueOf(index));
+  }
+
+  /**
+   * Return number of elements to copy. A JSON object must have the keys "0".."size-1".
+   */
+  private int elementCount(int capacity) {
+    if (value instanceof JSONObject) {
+      JSONObject obj = (JSONObject) value;
+      for (Object key : obj.keySet()) {
+        if (!isIndex(key, obj.size())) {
+          throw createException("Expected array or object with keys 0.." + (obj.size() - 1) + ":");
+        }
+      }
+    } else if (value != null && !(value instanceof JSONArray)) {
+      throw createException("Expected array:");
+    }
+    return Math.min(size(), capacity);
+  }
+
+  private static boolean isIndex(Object key, int size) {
+    try {
+      int index = Integer.parseInt((String) key);
+      return 0 <= index && index < size;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Return elements of current JSON array as ints, e.g., "roi":[350,50,100,100]
+   */
+  public int[] toIntArray() {
+    int[] result = new int[size()];
+    toIntArray(result);
+    return result;
+  }
+
+  /**
+   * Copy elements of current JSON array into given array without allocation.
+   * Missing elements are copied as zero. Elements are converted as with getAsInt().
+   *
+   * @return number of elements copied, which is at most dest.length
+   */
+  public int toIntArray(int[] dest) {
+    int n = elementCount(dest.length);
+    for (int i = 0; i < n; i++) {
+      dest[i] = asInt(element(i), 0);
+    }
+    return n;
+  }
+
+  /**
+   * Return elements of current JSON array as doubles
+   */
+  public double[] toDoubleArray() {
+    double[] result = new double[size()];
+    toDoubleArray(result);
+    return result;
+  }
+
+  /**
+   * Copy elements of current JSON array into given array without allocation.
+   * Missing elements are copied as NaN.
+   *
+   * @return number of elements copied, which is at most dest.length
+   */
+  public int toDoubleArray(double[] dest) {
+    int n = elementCount(dest.length);
+    for (int i = 0; i < n; i++) {
+      dest[i] = asDouble(element(i), Double.NaN);
+    }
+    return n;
+  }
+
+  /**
+   * Return named fields of the objects in current JSON array as rows of doubles, e.g.,
+   * stage.get("rects").toDoubleMatrix("x", "y", "width", "height", "angle")
+   */
+  public double[][] toDoubleMatrix(String... fields) {
+    double[][] result = new double[size()][fields.length];
+    toDoubleMatrix(result, fields);
+    return result;
+  }
+
+  /**
+   * Copy named fields of the objects in current JSON array into the rows of given matrix
+   * without allocation. Missing fields are copied as NaN.
+   *
+   * @param dest matrix with a row of at least fields.length columns per object
+   * @return number of rows copied, which is at most dest.length
+   */
+  public int toDoubleMatrix(double[][] dest, String... fields) {
+    int n = elementCount(dest.length);
+    for (int i = 0; i < n; i++) {
+      Object element = element(i);
+      double[] row = dest[i];
+      if (element instanceof JSONObject) {
+        JSONObject obj = (JSONObject) element;
+        for (int j = 0; j < fields.length; j++) {
+          row[j] = asDouble(obj.get(fields[j]), Double.NaN);
+        }
+      } else if (element == null) {
+        Arrays.fill(row, 0, fields.length, Double.NaN);
+      } else {
+        throw createException("Expected array of objects:");
+      }
+    }
+    return n;
+  }
+
   /**
    * Return string value for current JSON value
    */
@@ -173,6 +445,12 @@ public class JSONResult {
     throw createException("Expected string:");
   }
 
+  /**
+   * Compare JSON values structurally without serializing them.
+   * Parsed objects and arrays cache their hash codes, so subtrees whose hashes differ are
+   * rejected without being traversed. Numbers are compared as parsed, so 1 and 1.0 differ.
+   * For convenience, a JSONResult also equals its JSON text, which is not reflected by hashCode().
+   */
   @Override
   public boolean equals(Object thatObj) {
     if (thatObj instanceof JSONResult) {
@@ -180,12 +458,103 @@ public class JSONResult {
       if (this.value == that.value) {
         return true;
       }
-      if (this.value == null || that.value == null) {
+      if (this.value == null || that.value == null || this.hashCode() != that.hashCode()) {
+        return false;
+      }
+      return value.equals(that.value);
+    }
+    return thatObj instanceof String && toString().equals(thatObj);
+  }
+
+  /**
+   * Return structural hash code of current JSON value. The hash code of each parsed object
+   * and array is computed once and shared by every JSONResult for that subtree.
+   */
+  @Override
+  public int hashCode() {
+    return value == null ? 0 : value.hashCode();
+  }
+
+  /**
+   * Creates parsed JSON objects and arrays that cache their hash codes.
+   * Parsed JSON values are treated as immutable.
+   */
+  static final ContainerFactory containers = new ContainerFactory() {
+    @SuppressWarnings("rawtypes") // json-simple interface
+    public Map createObjectContainer() {
+      return new HashedObject();
+    }
+
+    @SuppressWarnings("rawtypes")
+    public List creatArrayContainer() {
+      return new HashedArray();
+    }
+  };
+
+  private static final class HashedObject extends JSONObject {
+    private static final long serialVersionUID = 1L;
+    private int hash; // zero until computed
+
+    @Override
+    public int hashCode() {
+      int h = hash;
+      if (h == 0) {
+        h = super.hashCode();
+        hash = h;
+      }
+      return h;
+    }
+
+    @Override
+    public boolean equals(Object thatObj) {
+      if (thatObj == this) {
+        return true;
+      }
+      if (thatObj instanceof HashedObject) {
+        int thatHash = ((HashedObject) thatObj).hash;
+        if (hash != 0 && thatHash != 0 && hash != thatHash) {
+          return false;
+        }
+      }
+      return super.equals(thatObj);
+    }
+  }
+
+  private static final class HashedArray extends JSONArray {
+    private static final long serialVersionUID = 1L;
+    private int hash; // zero until computed
+
+    @Override
+    public int hashCode() {
+      int h = hash;
+      if (h == 0) {
+        h = super.hashCode();
+        hash = h;
+      }
+      return h;
+    }
+
+    @Override
+    public boolean equals(Object thatObj) {
+      if (thatObj == this) {
+        return true;
+      }
+      if (!(thatObj instanceof HashedArray)) {
+        return super.equals(thatObj);
+      }
+      HashedArray that = (HashedArray) thatObj;
+      if (hash != 0 && that.hash != 0 && hash != that.hash || size() != that.size()) {
         return false;
       }
-      return getString().equals(that.getString());
+      for (int i = 0; i < size(); i++) {
+        Object thisElement = get(i);
+        Object thatElement = that.get(i);
+        if (thisElement == null ? thatElement != null : !thisElement.equals(thatElement)) {
+          return false;
+        }
+      }
+      return true;
     }
-    return toString().equals(thatObj);
   }
 
   @Override
@@ -1,59 +1,109 @@
 package org.firepick;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Threadsafe LIFO single-producer/multi-consumer cache that returns most recently posted value.
+ * The cache is lock-free: each post() atomically swaps in a new (sequence, value) entry
+ * and get() advances the read sequence. Only awaitFresh() blocks.
  */
 public class LIFOCache<T> {
-  private volatile long readCount = 0;
-  private volatile long writeCount = 0;
-  private Object [] values = new Object[2];
+  private static final Entry<Object> EMPTY = new Entry<Object>(0, null);
+
+  @SuppressWarnings("unchecked")
+  private final AtomicReference<Entry<T>> latest = new AtomicReference<Entry<T>>((Entry<T>) EMPTY);
+  private final AtomicLong readCount = new AtomicLong();
+  private final Object monitor = new Object();
+  private volatile int waiters;
 
   public LIFOCache() {}
 
+  /**
+   * Return most recently posted value without consuming it
+   */
   public T peek() {
-    synchronized(this) {
-      int valueIndex = (int)(writeCount - readCount);
-      T result;				
-      if (valueIndex > 0) {	
-	valueIndex = 1;	
-	result = (T) values[valueIndex];	
-      } else {			
-	result = (T) values[0];
-      }			
-      return result;
-    }
+    return latest.get().value;
   }
 
+  /**
+   * Return most recently posted value and mark it as read
+   */
   public T get() {
-    synchronized(this) {
-      int valueIndex = (int)(writeCount - readCount);
-      if (valueIndex > 0) {		
-	valueIndex = 1;		
-	values[0] = values[valueIndex];		
-      }					
-      readCount = writeCount;	
-      T result = (T) values[0];
-      return result;
+    Entry<T> entry = latest.get();
+    long reads;
+    while ((reads = readCount.get()) < entry.writeCount) {
+      if (readCount.compareAndSet(reads, entry.writeCount)) {
+        break;
+      }
     }
+    return entry.value;
   }
 
   public void post(T value) {
-    synchronized(this) {
-      int valueIndex = (int)(writeCount - readCount + 1);
-      if (valueIndex >= 2) {			
-	valueIndex = 1; // overwrite existing
-      }					
-      values[valueIndex] = value;
-      writeCount++;		
+    Entry<T> prev;
+    Entry<T> next;
+    do {
+      prev = latest.get();
+      next = new Entry<T>(prev.writeCount + 1, value);
+    } while (!latest.compareAndSet(prev, next));
+    if (waiters > 0) {
+      synchronized (monitor) {
+        monitor.notifyAll();
+      }
     }
   }
 
   public boolean isEmpty() {
-    return writeCount == 0;
+    return latest.get().writeCount == 0;
   }
 
-  public boolean isFresh() { 
-    return writeCount > 0 && writeCount != readCount; 
+  public boolean isFresh() {
+    return latest.get().writeCount > readCount.get();
+  }
+
+  /**
+   * Wait until a value is posted that has not yet been read with get()
+   *
+   * @param timeout maximum time to wait
+   * @param unit unit of timeout
+   * @return true if cache is fresh, false if timeout elapsed first
+   */
+  public boolean awaitFresh(long timeout, TimeUnit unit) throws InterruptedException {
+    if (isFresh()) {
+      return true;
+    }
+    long nsRemaining = unit.toNanos(timeout);
+    long nsDeadline = System.nanoTime() + nsRemaining;
+    synchronized (monitor) {
+      waiters++;
+      try {
+        while (!isFresh()) {
+          if (nsRemaining <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(monitor, nsRemaining);
+          nsRemaining = nsDeadline - System.nanoTime();
+        }
+        return true;
+      } finally {
+        waiters--;
+      }
+    }
+  }
+
+  /**
+   * Immutable posted value with its write sequence number
+   */
+  private static final class Entry<T> {
+    final long writeCount;
+    final T value;
+
+    Entry(long writeCount, T value) {
+      this.writeCount = writeCount;
+      this.value = value;
+    }
   }
 
 }
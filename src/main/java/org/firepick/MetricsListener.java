@@ -0,0 +1,52 @@
+package org.firepick;
+
+import java.net.URL;
+
+/**
+ * Receives client measurements from FireREST, ServiceResolver and TCPScanner.
+ * Calls are made on the requesting thread, so implementations must be threadsafe and fast.
+ * ClientMetrics aggregates measurements into histograms and counters.
+ */
+public interface MetricsListener {
+
+  enum Operation {
+    GET_JSON, GET_IMAGE, RESOLVE
+  }
+
+  enum Outcome {
+    OK, ERROR, TIMEOUT, ABORTED
+  }
+
+  /**
+   * Called when a request completes
+   *
+   * @param operation request type
+   * @param url requested URL
+   * @param nsLatency time from sending the request to completion
+   * @param bytes response body bytes read or -1 if unknown
+   * @param outcome OK, or how the request failed
+   */
+  void request(Operation operation, URL url, long nsLatency, long bytes, Outcome outcome);
+
+  /**
+   * Called when an image has been decoded
+   *
+   * @param nsDecode time spent decoding the response body
+   */
+  void decoded(URL url, long nsDecode);
+
+  /**
+   * Called when getImage() returns an error image instead of an image from the given URL
+   */
+  void errorImage(URL url);
+
+  /**
+   * Called when a TCP scan completes
+   *
+   * @param probes number of connects started
+   * @param hosts number of hosts found
+   * @param nsElapsed scan duration
+   */
+  void scanned(long probes, int hosts, long nsElapsed);
+
+}
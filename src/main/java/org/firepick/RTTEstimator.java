@@ -0,0 +1,182 @@
+package org.firepick;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host round trip time estimator that derives request timeouts in the manner of
+ * TCP retransmission timeouts (RFC 6298): timeout = srtt + 4 * rttvar, clamped to configured bounds
+ * and doubled after each timeout until the next successful sample.
+ * Recent samples are kept to estimate latency percentiles for hedged requests.
+ * Hosts are identified by URL authority, i.e., host name and port as written in the URL.
+ */
+public class RTTEstimator {
+  static final int SAMPLES = 64;
+  static final int MIN_HEDGE_SAMPLES = 10;
+  static final double HEDGE_PERCENTILE = 0.95;
+
+  private final int msMin;
+  private final int msMax;
+  private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+  /**
+   * @param msMin smallest timeout in milliseconds
+   * @param msMax largest timeout in milliseconds, which is also used for hosts without samples
+   */
+  public RTTEstimator(int msMin, int msMax) {
+    if (msMin < 1 || msMax < msMin) {
+      throw new FireRESTException("Expected 0 < msMin <= msMax");
+    }
+    this.msMin = msMin;
+    this.msMax = msMax;
+  }
+
+  public int getMinTimeout() {
+    return msMin;
+  }
+
+  public int getMaxTimeout() {
+    return msMax;
+  }
+
+  /**
+   * Return timeout in milliseconds for requests to the host of the given URL
+   */
+  public int getTimeout(URL url) {
+    Host host = hosts.get(key(url));
+    return host == null ? msMax : host.getTimeout(msMin, msMax);
+  }
+
+  /**
+   * Return smoothed round trip time in milliseconds or -1 if the host has no samples
+   */
+  public double getSmoothedRTT(URL url) {
+    Host host = hosts.get(key(url));
+    return host == null ? -1 : host.getSmoothedRTT();
+  }
+
+  /**
+   * Return the given percentile (0..1) of recent round trip times in milliseconds
+   * or -1 if the host has no samples
+   */
+  public int getPercentile(URL url, double percentile) {
+    Host host = hosts.get(key(url));
+    return host == null ? -1 : host.getPercentile(percentile);
+  }
+
+  /**
+   * Return delay in milliseconds before a hedged request should be sent, i.e., the 95th percentile
+   * of recent round trip times, or 0 if there are too few samples or hedging would not fire
+   * before the timeout.
+   */
+  int getHedgeDelay(URL url) {
+    Host host = hosts.get(key(url));
+    if (host == null) {
+      return 0;
+    }
+    return host.getHedgeDelay(msMin, msMax);
+  }
+
+  /**
+   * Record a round trip time
+   */
+  public void sample(URL url, long msRTT) {
+    host(url).sample(Math.max(0, msRTT));
+  }
+
+  /**
+   * Record a timeout, which doubles the host timeout until the next sample
+   */
+  public void timeout(URL url) {
+    host(url).timeout();
+  }
+
+  public void clear() {
+    hosts.clear();
+  }
+
+  private Host host(URL url) {
+    String key = key(url);
+    Host host = hosts.get(key);
+    if (host == null) {
+      Host newHost = new Host();
+      host = hosts.putIfAbsent(key, newHost);
+      if (host == null) {
+        host = newHost;
+      }
+    }
+    return host;
+  }
+
+  private static String key(URL url) {
+    String authority = url.getAuthority(); // cached by URL
+    return authority == null ? "" : authority;
+  }
+
+  private static class Host {
+    private double srtt = -1;
+    private double rttvar;
+    private int backoff = 1;
+    private final int[] samples = new int[SAMPLES];
+    private int nSamples;
+    private int next;
+    private int msHedgeDelay = -1; // computed on demand after each sample or timeout
+
+    synchronized void sample(long msRTT) {
+      if (srtt < 0) {
+        srtt = msRTT;
+        rttvar = msRTT / 2.0;
+      } else {
+        rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - msRTT);
+        srtt = 0.875 * srtt + 0.125 * msRTT;
+      }
+      backoff = 1;
+      samples[next] = (int) Math.min(Integer.MAX_VALUE, msRTT);
+      next = (next + 1) % SAMPLES;
+      nSamples = Math.min(SAMPLES, nSamples + 1);
+      msHedgeDelay = -1;
+    }
+
+    synchronized void timeout() {
+      if (backoff < 64) {
+        backoff *= 2;
+        msHedgeDelay = -1;
+      }
+    }
+
+    synchronized int getTimeout(int msMin, int msMax) {
+      if (srtt < 0) {
+        return msMax;
+      }
+      double rto = (srtt + Math.max(1, 4 * rttvar)) * backoff;
+      return (int) Math.max(msMin, Math.min(msMax, Math.ceil(rto)));
+    }
+
+    synchronized double getSmoothedRTT() {
+      return srtt;
+    }
+
+    synchronized int getPercentile(double percentile) {
+      if (nSamples == 0) {
+        return -1;
+      }
+      int[] sorted = Arrays.copyOf(samples, nSamples);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile * nSamples) - 1;
+      return sorted[Math.max(0, Math.min(nSamples - 1, index))];
+    }
+
+    synchronized int getHedgeDelay(int msMin, int msMax) {
+      if (msHedgeDelay < 0) {
+        if (nSamples < MIN_HEDGE_SAMPLES) {
+          msHedgeDelay = 0;
+        } else {
+          int msDelay = Math.max(1, getPercentile(HEDGE_PERCENTILE));
+          msHedgeDelay = msDelay < getTimeout(msMin, msMax) ? msDelay : 0;
+        }
+      }
+      return msHedgeDelay;
+    }
+  }
+}
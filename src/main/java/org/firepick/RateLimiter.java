@@ -0,0 +1,56 @@
+package org.firepick;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that paces events to a fixed rate with a burst of at most 1/20 second.
+ * Threadsafe, so that scans sharing a limiter share its rate.
+ */
+class RateLimiter {
+  private final double permitsPerNano;
+  private final double maxPermits;
+  private double permits;
+  private long nsLast;
+
+  RateLimiter(int permitsPerSecond) {
+    if (permitsPerSecond < 1) {
+      throw new FireRESTException("Expected permitsPerSecond > 0");
+    }
+    this.permitsPerNano = permitsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+    this.maxPermits = Math.max(1, permitsPerSecond / 20.0);
+    this.permits = 1;
+    this.nsLast = System.nanoTime();
+  }
+
+  int getRate() {
+    return (int) Math.round(permitsPerNano * TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /**
+   * Take a permit if one is available
+   */
+  synchronized boolean tryAcquire(long nsNow) {
+    refill(nsNow);
+    if (permits < 1) {
+      return false;
+    }
+    permits--;
+    return true;
+  }
+
+  /**
+   * Return nanoseconds until the next permit is available
+   */
+  synchronized long nsUntilPermit(long nsNow) {
+    refill(nsNow);
+    return permits >= 1 ? 0 : (long) Math.ceil((1 - permits) / permitsPerNano);
+  }
+
+  private void refill(long nsNow) {
+    long elapsed = nsNow - nsLast;
+    if (elapsed > 0) {
+      permits = Math.min(maxPermits, permits + elapsed * permitsPerNano);
+      nsLast = nsNow;
+    }
+  }
+}
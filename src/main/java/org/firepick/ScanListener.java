@@ -0,0 +1,37 @@
+package org.firepick;
+
+import java.net.InetAddress;
+
+/**
+ * Receives hosts from IPv4Scanner and TCPScanner as soon as they answer.
+ * Calls are serialized, so implementations need not be threadsafe.
+ */
+public interface ScanListener {
+
+  /**
+   * Called for each host that answers
+   *
+   * @param addr host address
+   * @return true to continue scanning or false to stop the scan
+   */
+  boolean found(InetAddress addr);
+
+  /**
+   * Return a listener that forwards at most maxHosts hosts to the given listener and then stops the scan.
+   * E.g., limit(1, listener) stops as soon as the first host answers.
+   */
+  static ScanListener limit(final int maxHosts, final ScanListener listener) {
+    return new ScanListener() {
+      private int count;
+
+      public boolean found(InetAddress addr) {
+        if (count >= maxHosts) {
+          return false;
+        }
+        count++;
+        return listener.found(addr) && count < maxHosts;
+      }
+    };
+  }
+
+}
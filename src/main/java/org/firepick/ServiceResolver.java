@@ -2,6 +2,16 @@ package org.firepick;
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,16 +20,27 @@ import org.slf4j.LoggerFactory;
  */
 public class ServiceResolver {
   static Logger logger = LoggerFactory.getLogger(ServiceResolver.class);
+  static final int [] PORTS = {8080, 80};
+  static final String [] PATHS = {"/firerest/config.json"};
+  static final int MAX_RESOLVING = 32;
+  private static final ConcurrentHashMap<String, URL> endpoints = new ConcurrentHashMap<String, URL>();
+  private static ExecutorService executor;
   private InetAddress address;
   private URL url;
-  private int attempts;
-  private JSONResult config;
+  private volatile int attempts;
+  private volatile JSONResult config;
   private int msTimeout = 500;
+  private boolean useHostName;
+  private int [] ports = PORTS;
+  private MetricsListener metrics;
   
-  private ServiceResolver(ServiceResolver resolver, int msTimeout) {
+  private ServiceResolver(ServiceResolver resolver) {
     this.url = resolver.url;
     this.address = resolver.address;
-    this.msTimeout = msTimeout;
+    this.msTimeout = resolver.msTimeout;
+    this.useHostName = resolver.useHostName;
+    this.ports = resolver.ports;
+    this.metrics = resolver.metrics;
   }
 
   public ServiceResolver(URL url) {
@@ -36,13 +57,77 @@ public class ServiceResolver {
     this.address = address;
   }
 
+  ServiceResolver(InetAddress address, URL url) {
+    this.address = address;
+    this.url = url;
+  }
+
   public ServiceResolver withTimeout(int msTimeout) {
-    return new ServiceResolver(this, msTimeout);
+    ServiceResolver result = new ServiceResolver(this);
+    result.msTimeout = msTimeout;
+    return result;
+  }
+
+  /**
+   * Return resolver that builds its service URL from the canonical host name of its address
+   * instead of the literal IP address (default). Host names require a blocking reverse DNS lookup,
+   * which can stall for seconds on networks without PTR records.
+   */
+  public ServiceResolver withHostName(boolean useHostName) {
+    ServiceResolver result = new ServiceResolver(this);
+    result.useHostName = useHostName;
+    return result;
+  }
+
+  /**
+   * Return resolver that reports resolve times and the requests it sends to the given listener
+   *
+   * @param metrics listener or null for no metrics
+   */
+  public ServiceResolver withMetrics(MetricsListener metrics) {
+    ServiceResolver result = new ServiceResolver(this);
+    result.metrics = metrics;
+    return result;
+  }
+
+  /**
+   * Return resolver that looks for the service on the given ports instead of 8080 and 80
+   */
+  public ServiceResolver withPorts(int... ports) {
+    if (ports.length == 0) {
+      throw new FireRESTException("Expected at least one port");
+    }
+    ServiceResolver result = new ServiceResolver(this);
+    result.ports = ports.clone();
+    return result;
+  }
+
+  /**
+   * Return executor for config.json requests. When it is saturated (e.g., by a large discovery),
+   * requests run on the resolving thread instead of being rejected, which slows discovery down
+   * rather than losing hosts.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) FireREST.newExecutor(2 * MAX_RESOLVING, 256);
+      pool.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+	public void rejectedExecution(Runnable request, ThreadPoolExecutor pool) {
+	  if (pool.isShutdown()) {
+	    throw new RejectedExecutionException("ServiceResolver executor is shut down");
+	  }
+	  logger.debug("ServiceResolver executor saturated; resolving on {}", Thread.currentThread().getName());
+	  request.run();
+	}
+      });
+      executor = pool;
+    }
+    return executor;
   }
 
   /**
    * Discover FireREST services located in a range of IPv4 InetAddresses.
    * E.g., The range of 256 addresses that starts with 10.0.1.128 ends with 10.0.2.127.
+   * Only hosts that accept TCP connections on a FireREST port (8080 or 80) are resolved.
    *
    * @param start first InetAddress to scan (null for localhost)
    * @param count number of subsequent InetAddresses in the range
@@ -50,56 +135,278 @@ public class ServiceResolver {
    * @return ServiceResolvers that resolve to a FireREST service.
    */
   public static Collection<ServiceResolver> discover(InetAddress start, int count, int msTimeout) {
-    Collection<ServiceResolver> result = new ArrayList<ServiceResolver>();
-    Collection<InetAddress> hosts = IPv4Scanner.scanRange(start, count, msTimeout);
-    for (InetAddress host: hosts) {
-      ServiceResolver resolver = new ServiceResolver(host);
-      logger.info("resolving {} {}", host.getHostAddress(), host.getCanonicalHostName());
-      JSONResult config = resolver.getConfig();
-      if (config != null) {
-         result.add(resolver);
+    final Collection<ServiceResolver> result = new ArrayList<ServiceResolver>();
+    discover(start, count, msTimeout, new DiscoveryListener() {
+      public void discovered(ServiceResolver resolver) {
+	result.add(resolver);
       }
-    }
+    });
 
     return result;
   }
 
+  /**
+   * Discover FireREST services as a pipeline. Each host that answers the scan is resolved
+   * immediately by one of up to MAX_RESOLVING concurrent config.json requests while the
+   * scan continues, and each service is passed to the listener as soon as its configuration
+   * has been read. Discovery takes about one scan plus one request timeout.
+   *
+   * @param start first InetAddress to scan (null for localhost)
+   * @param count number of subsequent InetAddresses in the range
+   * @param msTimeout maximum time to wait for host response
+   * @param listener receives resolved services; calls are serialized
+   */
+  public static void discover(InetAddress start, int count, int msTimeout, DiscoveryListener listener) {
+    discover(IPv4Scanner.ranges(start, count), msTimeout, 0, listener);
+  }
+
+  /**
+   * Discover FireREST services in the given address ranges (e.g., IPv4Range.parseList("10.1.0.0/20")).
+   * See discover(InetAddress, int, int, DiscoveryListener).
+   *
+   * @param ranges address ranges to scan
+   * @param msTimeout maximum time to wait for host response
+   * @param probesPerSecond maximum scan rate or 0 for no limit
+   * @param listener receives resolved services; calls are serialized
+   */
+  public static void discover(List<IPv4Range> ranges, final int msTimeout, int probesPerSecond,
+      final DiscoveryListener listener) {
+    final ExecutorService executor = Executors.newFixedThreadPool(MAX_RESOLVING,
+	FireREST.daemonThreadFactory("ServiceResolver"));
+    try {
+      logger.info("discover {} on ports {}", ranges, Arrays.toString(PORTS));
+      TCPScanner scanner = new TCPScanner().withTimeout(msTimeout).withPorts(PORTS).withRateLimit(probesPerSecond);
+      scanner.scan(ranges, new ScanListener() {
+	public boolean found(final InetAddress host) {
+	  executor.execute(new Runnable() {
+	    public void run() {
+	      ServiceResolver resolver = new ServiceResolver(host).withTimeout(msTimeout);
+	      if (logger.isInfoEnabled()) {
+		logger.info("resolving {} {}", host.getHostAddress(), HostNames.getDefault().getName(host));
+	      }
+	      if (resolver.getConfig() != null) {
+		synchronized (listener) {
+		  listener.discovered(resolver);
+		}
+	      }
+	    }
+	  });
+	  return true;
+	}
+      });
+    } finally {
+      executor.shutdown();
+    }
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Discover FireREST services, using the given cache for a fast warm start.
+   * If the cache has services in the requested range that were seen within its TTL, they are
+   * returned immediately and revalidated in the background. Otherwise the range is scanned with
+   * discover() and the cache entries for the range are replaced by the services found.
+   * Services that no longer respond are removed from the cache, but remain in the returned
+   * collection; their getConfig() returns null once revalidation has failed. Calling getConfig()
+   * during revalidation waits for it rather than sending another request.
+   *
+   * @param start first InetAddress to scan (null for localhost)
+   * @param count number of subsequent InetAddresses in the range
+   * @param msTimeout maximum time to wait for host response
+   * @param cache persistent record of discovered services
+   * @return ServiceResolvers that resolve (or recently resolved) to a FireREST service.
+   */
+  public static Collection<ServiceResolver> discover(InetAddress start, int count, int msTimeout,
+      final DiscoveryCache cache) {
+    List<IPv4Range> ranges = IPv4Scanner.ranges(start, count);
+    final List<ServiceResolver> cached = new ArrayList<ServiceResolver>();
+    for (ServiceResolver resolver: cache.getResolvers()) {
+      if (IPv4Range.contains(ranges, resolver.getAddress())) {
+	cached.add(resolver.withTimeout(msTimeout));
+      }
+    }
+    if (cached.isEmpty()) {
+      Collection<ServiceResolver> result = discover(start, count, msTimeout);
+      synchronized (cache) {
+	cache.forget(ranges);
+	for (ServiceResolver resolver: result) {
+	  cache.seen(resolver);
+	}
+	try {
+	  cache.save();
+	} catch (FireRESTException e) {
+	  logger.warn("Could not save discovery cache {}: {}", cache.getFile(), e.getMessage());
+	}
+      }
+      return result;
+    }
+
+    logger.info("discover => {} cached services", cached.size());
+    Thread thread = FireREST.daemonThreadFactory("DiscoveryCache").newThread(new Runnable() {
+      public void run() {
+	revalidate(cached, cache);
+      }
+    });
+    thread.start();
+    return cached;
+  }
+
+  /**
+   * Resolve the given resolvers, which have been returned to the caller, and update the cache
+   */
+  private static void revalidate(List<ServiceResolver> cached, final DiscoveryCache cache) {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(cached.size(), MAX_RESOLVING),
+	FireREST.daemonThreadFactory("ServiceResolver"));
+    for (final ServiceResolver resolver: cached) {
+      executor.execute(new Runnable() {
+	public void run() {
+	  if (resolver.getConfig() == null) {
+	    cache.forget(resolver);
+	  } else {
+	    cache.seen(resolver);
+	  }
+	}
+      });
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      cache.save();
+    } catch (Exception e) {
+      logger.warn("Could not revalidate discovery cache {}: {}", cache.getFile(), e.getMessage());
+    }
+  }
+
   public URL getURL() {
     return url;
   }
 
   /**
-   * (Re-)discover the service configuration
-   *
-   * @return true if config.json was successfully obtained
+   * (Re-)discover the service configuration.
+   * A resolver created with an address first tries the endpoint that last answered for that
+   * address. Failing that, it requests config.json from every candidate port and path at once
+   * and keeps the first valid response, so resolving takes one round trip to the fastest
+   * endpoint rather than the sum of timeouts. The winning endpoint is remembered.
    */
-  public void resolve() {
-    attempts++;
+  public synchronized void resolve() {
     config = null;
-    Exception caughtException = null;
-    String host = address == null ? "null" : address.getCanonicalHostName();
-    if (url == null) {
-      URL attemptUrl = null;
-      int [] ports = {8080, 80};
-      for (int i=0; i < ports.length; i++) {
+    long nsStart = System.nanoTime();
+    try {
+      resolveEndpoint();
+    } catch (RuntimeException e) {
+      if (metrics != null) {
+	metrics.request(MetricsListener.Operation.RESOLVE, url, System.nanoTime() - nsStart, -1, MetricsListener.Outcome.ERROR);
+      }
+      throw e;
+    } finally {
+      attempts++; // after config is set, so that getConfig() waits for a resolve() in progress
+    }
+    if (metrics != null) {
+      metrics.request(MetricsListener.Operation.RESOLVE, url, System.nanoTime() - nsStart, -1, MetricsListener.Outcome.OK);
+    }
+  }
+
+  private void resolveEndpoint() {
+    FireREST firerest = new FireREST().withTimeout(msTimeout).withExecutor(getExecutor()).withMetrics(metrics);
+    if (address == null) {
+      logger.info("Resolving {}", url);
+      config = firerest.getJSON(url);
+      return;
+    }
+
+    String host = useHostName ? address.getCanonicalHostName() : address.getHostAddress();
+    URL known = url == null ? endpoints.get(host) : url;
+    if (known != null) {
+      try {
+	logger.info("Resolving {}", known);
+	config = validate(known, firerest.getJSON(known));
+	url = known;
+	return;
+      } catch (FireRESTException e) {
+	logger.info("{} => {}", known, e.getMessage());
+	endpoints.remove(host, known);
+      }
+    }
+
+    List<URL> candidates = new ArrayList<URL>();
+    for (int port: ports) {
+      for (String path: PATHS) {
 	try {
-	  attemptUrl = new URL("http", host, ports[i], "/firerest/config.json");
-	  break;
-	} catch (Exception e) {
-	  attemptUrl = null;
-	  caughtException = e;
+	  candidates.add(new URL("http", host, port, path));
+	} catch (MalformedURLException e) {
+	  throw new FireRESTException("Could not resolve service at " + host, e);
 	}
       }
-      if (attemptUrl == null) {
-	throw new FireRESTException("Could not resolve service at " + host, caughtException);
+    }
+    logger.info("Resolving {}", candidates);
+    List<CompletableFuture<JSONResult>> requests = new ArrayList<CompletableFuture<JSONResult>>();
+    final CompletableFuture<Integer> winner = new CompletableFuture<Integer>();
+    final AtomicInteger pending = new AtomicInteger(candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      final int index = i;
+      final URL candidate = candidates.get(i);
+      CompletableFuture<JSONResult> request = firerest.getJSONAsync(candidate, msTimeout);
+      requests.add(request);
+      request.whenComplete((json, ex) -> {
+	if (ex == null) {
+	  try {
+	    validate(candidate, json);
+	    winner.complete(index);
+	    return;
+	  } catch (FireRESTException e) {
+	    ex = e;
+	  }
+	}
+	if (pending.decrementAndGet() == 0) {
+	  winner.completeExceptionally(ex);
+	}
+      });
+    }
+    try {
+      int index = winner.get();
+      url = candidates.get(index);
+      config = requests.get(index).get();
+      endpoints.put(host, url);
+    } catch (ExecutionException e) {
+      throw new FireRESTException("Could not resolve service at " + host, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FireRESTException("Could not resolve service at " + host, e);
+    } finally {
+      for (CompletableFuture<JSONResult> request: requests) {
+	request.cancel(true); // abort losing requests
       }
-      url = attemptUrl;
     }
+  }
 
-    if (config == null) {
-      logger.info("Resolving {}", url);
-      config = new FireREST().withTimeout(msTimeout).getJSON(url);
+  /**
+   * Re-fetch the service configuration from the resolved endpoint, resolving the service
+   * if required. Unlike resolve(), the current configuration is kept if the request fails.
+   * Unchanged configurations are revalidated with the JSON cache and return the same JSONResult.
+   *
+   * @return service configuration
+   * @throws FireRESTException if the configuration could not be fetched
+   */
+  public synchronized JSONResult refresh() {
+    if (url == null || attempts == 0) {
+      resolve();
+      return config;
+    }
+    FireREST firerest = new FireREST().withTimeout(msTimeout).withExecutor(getExecutor()).withMetrics(metrics);
+    JSONResult result = firerest.getJSON(url);
+    config = address == null ? result : validate(url, result);
+    return config;
+  }
+
+  private static JSONResult validate(URL url, JSONResult config) {
+    if (config.get("FireREST").isNull()) {
+      throw new FireRESTException(url + " is not a FireREST service");
     }
+    return config;
   }
 
   /** 
@@ -120,10 +427,14 @@ public class ServiceResolver {
    */
   public JSONResult getConfig() {
     if (attempts == 0) {
-      try {
-	resolve();
-      } catch(Exception e) {
-        // discard exception
+      synchronized (this) { // wait for a resolve() in progress
+	if (attempts == 0) {
+	  try {
+	    resolve();
+	  } catch(Exception e) {
+	    // discard exception
+	  }
+	}
       }
     }
     if (config == null) {
@@ -0,0 +1,343 @@
+package org.firepick;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking TCP connect scanner for IPv4 address ranges.
+ * The calling thread drives all probes through a single Selector, so that thousands of
+ * connects are in flight at once and a /24 sweep takes about one timeout period.
+ * A host is found if it accepts a connection on any probed port (by default the FireREST ports 8080 and 80).
+ * Unlike InetAddress.isReachable(), this requires no ICMP privileges and ignores hosts that
+ * do not serve the probed ports.
+ */
+public class TCPScanner {
+  static Logger logger = LoggerFactory.getLogger(TCPScanner.class);
+  private int[] ports = {8080, 80};
+  private int msTimeout = 500;
+  private int maxConcurrent = 512;
+  private RateLimiter rateLimiter;
+  private MetricsListener metrics;
+
+  public TCPScanner() {
+  }
+
+  private TCPScanner(TCPScanner scanner) {
+    this.ports = scanner.ports;
+    this.msTimeout = scanner.msTimeout;
+    this.maxConcurrent = scanner.maxConcurrent;
+    this.rateLimiter = scanner.rateLimiter;
+    this.metrics = scanner.metrics;
+  }
+
+  /**
+   * Return a scanner that probes the given TCP ports of each host
+   */
+  public TCPScanner withPorts(int... ports) {
+    if (ports.length == 0) {
+      throw new FireRESTException("Expected at least one port");
+    }
+    TCPScanner result = new TCPScanner(this);
+    result.ports = ports.clone();
+    return result;
+  }
+
+  /**
+   * Return a scanner that waits at most msTimeout for each connect
+   */
+  public TCPScanner withTimeout(int msTimeout) {
+    TCPScanner result = new TCPScanner(this);
+    result.msTimeout = msTimeout;
+    return result;
+  }
+
+  /**
+   * Return a scanner that limits the number of connects in flight (i.e., open sockets)
+   */
+  public TCPScanner withMaxConcurrent(int maxConcurrent) {
+    if (maxConcurrent < 1) {
+      throw new FireRESTException("Expected maxConcurrent > 0");
+    }
+    TCPScanner result = new TCPScanner(this);
+    result.maxConcurrent = maxConcurrent;
+    return result;
+  }
+
+  /**
+   * Return a scanner that starts at most probesPerSecond connects per second.
+   * The limit is shared by all scans of the returned scanner and of scanners derived from it,
+   * including scans running concurrently on other threads.
+   *
+   * @param probesPerSecond connects per second or 0 for no limit
+   */
+  public TCPScanner withRateLimit(int probesPerSecond) {
+    if (probesPerSecond < 0) {
+      throw new FireRESTException("Expected probesPerSecond >= 0");
+    }
+    TCPScanner result = new TCPScanner(this);
+    result.rateLimiter = probesPerSecond == 0 ? null : new RateLimiter(probesPerSecond);
+    return result;
+  }
+
+  /**
+   * Return a scanner that reports the number of probes, hosts found and duration of each scan
+   *
+   * @param metrics listener or null for no metrics
+   */
+  public TCPScanner withMetrics(MetricsListener metrics) {
+    TCPScanner result = new TCPScanner(this);
+    result.metrics = metrics;
+    return result;
+  }
+
+  /**
+   * Return maximum connects per second or 0 for no limit
+   */
+  public int getRateLimit() {
+    return rateLimiter == null ? 0 : rateLimiter.getRate();
+  }
+
+  public int[] getPorts() {
+    return ports.clone();
+  }
+
+  public int getTimeout() {
+    return msTimeout;
+  }
+
+  /**
+   * Scan a range of IPv4 addresses
+   *
+   * @param start first address (see IPv4Scanner.asLongAddress())
+   * @param count number of addresses in range
+   * @return addresses of hosts that accepted a connection, in the order they answered
+   */
+  public List<InetAddress> scan(long start, int count) {
+    final List<InetAddress> result = new ArrayList<InetAddress>();
+    scan(start, count, new ScanListener() {
+      public boolean found(InetAddress addr) {
+        result.add(addr);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Scan a range of IPv4 addresses, delivering each host as soon as it accepts a connection.
+   * Returns when all probes have completed or the listener stops the scan.
+   *
+   * @param start first address (see IPv4Scanner.asLongAddress())
+   * @param count number of addresses in range
+   * @param listener receives hosts in the order they answer on the calling thread
+   */
+  public void scan(long start, int count, ScanListener listener) {
+    if (count < 0) {
+      throw new FireRESTException("Expected count >= 0");
+    }
+    scan(Collections.singletonList(new IPv4Range(start, count)), listener);
+  }
+
+  /**
+   * Scan address ranges such as IPv4Range.parseList("10.1.0.0/20, 10.2.0.0/24")
+   *
+   * @return addresses of hosts that accepted a connection, in the order they answered
+   */
+  public List<InetAddress> scan(List<IPv4Range> ranges) {
+    final List<InetAddress> result = new ArrayList<InetAddress>();
+    scan(ranges, new ScanListener() {
+      public boolean found(InetAddress addr) {
+        result.add(addr);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Scan address ranges, delivering each host as soon as it accepts a connection.
+   * Addresses are iterated as primitive longs and an InetAddress is only created for
+   * each connect and each host found. Probes are paced by the rate limit if any.
+   *
+   * @param ranges address ranges with at most Integer.MAX_VALUE addresses in total
+   * @param listener receives hosts in the order they answer on the calling thread
+   */
+  public void scan(List<IPv4Range> ranges, ScanListener listener) {
+    ranges = IPv4Range.merge(ranges); // report each host once
+    long total = 0;
+    for (IPv4Range range : ranges) {
+      total += range.getCount();
+    }
+    if (total > Integer.MAX_VALUE) {
+      throw new FireRESTException("Expected at most " + Integer.MAX_VALUE + " addresses");
+    }
+    long nsStart = System.nanoTime();
+    long nConnects = 0;
+    BitSet found = new BitSet((int) total);
+    Selector selector = null;
+    ArrayDeque<Probe> pending = new ArrayDeque<Probe>();
+    try {
+      selector = Selector.open();
+      long nsTimeout = TimeUnit.MILLISECONDS.toNanos(msTimeout);
+      long nProbes = total * ports.length;
+      long nextProbe = 0;
+      int rangeIndex = 0;
+      long rangeOffset = 0; // offset of first address in current range
+      int inFlight = 0;
+      boolean scanning = true;
+      while (scanning && (nextProbe < nProbes || inFlight > 0)) {
+        while (scanning && nextProbe < nProbes && inFlight < maxConcurrent) {
+          int offset = (int) (nextProbe / ports.length);
+          if (found.get(offset)) {
+            nextProbe++;
+            continue;
+          }
+          if (rateLimiter != null && !rateLimiter.tryAcquire(System.nanoTime())) {
+            break;
+          }
+          int port = ports[(int) (nextProbe % ports.length)];
+          nextProbe++;
+          while (offset - rangeOffset >= ranges.get(rangeIndex).getCount()) {
+            rangeOffset += ranges.get(rangeIndex).getCount();
+            rangeIndex++;
+          }
+          long addr = ranges.get(rangeIndex).getStart() + offset - rangeOffset;
+          nConnects++;
+          Probe probe = connect(selector, addr, offset, port, System.nanoTime() + nsTimeout);
+          if (probe == null) {
+            continue;
+          }
+          if (probe.connected) {
+            scanning = found(probe, found, listener);
+            probe.close();
+          } else {
+            pending.addLast(probe);
+            inFlight++;
+          }
+        }
+
+        long now = System.nanoTime();
+        Probe head;
+        while ((head = pending.peekFirst()) != null && (head.done || head.nsDeadline - now <= 0)) {
+          pending.pollFirst();
+          if (!head.done) {
+            head.close();
+            inFlight--;
+          }
+        }
+        long nsWait = inFlight == 0 ? Long.MAX_VALUE : pending.peekFirst().nsDeadline - now;
+        if (rateLimiter != null && nextProbe < nProbes && inFlight < maxConcurrent) {
+          nsWait = Math.min(nsWait, rateLimiter.nsUntilPermit(now));
+        }
+        if (!scanning || nsWait == Long.MAX_VALUE) {
+          continue;
+        }
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nsWait)));
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (scanning && it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          Probe probe = (Probe) key.attachment();
+          try {
+            if (probe.channel.finishConnect()) {
+              scanning = found(probe, found, listener);
+            }
+          } catch (IOException e) {
+            // connection refused or host unreachable
+          }
+          probe.close();
+          inFlight--;
+        }
+      }
+    } catch (IOException e) {
+      throw new FireRESTException("TCP scan failed", e);
+    } finally {
+      for (Probe probe : pending) {
+        probe.close();
+      }
+      if (selector != null) {
+        try {
+          selector.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+      if (metrics != null) {
+        metrics.scanned(nConnects, found.cardinality(), System.nanoTime() - nsStart);
+      }
+    }
+  }
+
+  private Probe connect(Selector selector, long addr, int offset, int port, long nsDeadline) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      Probe probe = new Probe(channel, addr, offset, nsDeadline);
+      probe.connected = channel.connect(new InetSocketAddress(IPv4Scanner.asInetAddress(addr), port));
+      if (!probe.connected) {
+        channel.register(selector, SelectionKey.OP_CONNECT, probe);
+      }
+      return probe;
+    } catch (IOException e) {
+      // e.g., network unreachable or broadcast address
+      if (logger.isDebugEnabled()) {
+        logger.debug("Probe {}:{} => {}", IPv4Scanner.asInetAddress(addr).getHostAddress(), port, e.getMessage());
+      }
+      channel.close();
+      return null;
+    }
+  }
+
+  private boolean found(Probe probe, BitSet found, ScanListener listener) throws IOException {
+    if (found.get(probe.offset)) {
+      return true;
+    }
+    found.set(probe.offset);
+    InetAddress addr = IPv4Scanner.asInetAddress(probe.addr);
+    logger.info("Found host {}", addr.getHostAddress());
+    return listener.found(addr);
+  }
+
+  /**
+   * Connect in flight
+   */
+  private static class Probe {
+    final SocketChannel channel;
+    final long addr;
+    final int offset;
+    final long nsDeadline;
+    boolean connected;
+    boolean done;
+
+    Probe(SocketChannel channel, long addr, int offset, long nsDeadline) {
+      this.channel = channel;
+      this.addr = addr;
+      this.offset = offset;
+      this.nsDeadline = nsDeadline;
+    }
+
+    void close() {
+      done = true;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+}
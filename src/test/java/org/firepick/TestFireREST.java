@@ -72,6 +72,94 @@ public class TestFireREST extends TestCase {
     assertEquals((Integer) 736, stage.get("rects").get(1).get("width").getInt());
   }
 
+  static class Channel {
+    int dx;
+    int dy;
+    double match;
+  }
+
+  static class Rect {
+    int x, y, width, height;
+    double angle;
+    int[] color;
+  }
+
+  static class Stage {
+    Map<String, Channel> channels;
+    @JSONField("channels") Channel[] channelArray;
+    @JSONField Rect[] rects;
+    @JSONField java.util.List<Rect> rectList; // absent
+  }
+
+  public void testJSONBinder() {
+    File file  = new File("src/test/resources/calcOffset-model.json");
+    JSONResult result = new FireREST().getJSON(file);
+
+    Stage stage = JSONBinder.bind(result.get("calcOffset-stage"), Stage.class);
+    assertNull(stage.channels); // not marked
+    assertEquals(3, stage.channelArray.length);
+    assertEquals(14, stage.channelArray[0].dx);
+    assertEquals(0.984594d, stage.channelArray[1].match, 0);
+    assertEquals(5, stage.rects.length);
+    assertEquals(400, stage.rects[0].x);
+    assertEquals(736, stage.rects[1].width);
+    assertNull(stage.rects[0].color);
+    assertEquals(255, stage.rects[4].color[2]);
+    assertNull(stage.rectList);
+
+    Channel channel = JSONBinder.bind("{\"dx\":\"7\",\"match\":0.5}".getBytes(), Channel.class);
+    assertEquals(7, channel.dx);
+    assertEquals(0.5d, channel.match, 0);
+    try {
+      JSONBinder.bind("{\"dx\":[1]}".getBytes(), Channel.class);
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertEquals("Could not bind org.firepick.TestFireREST$Channel.dx: Expected number or string:[1]", e.getMessage());
+    }
+    try {
+      JSONBinder.bind("{\"rects\":[{\"color\":7}]}".getBytes(), Stage.class);
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertEquals("Could not bind org.firepick.TestFireREST$Stage.rects.color: Expected JSON array:7", e.getMessage());
+      assertFalse(e.getCause().getCause() instanceof FireRESTException); // not wrapped per level
+    }
+    try {
+      JSONBinder.bind("{\"channels\":{\"0\":{},\"2147483647\":{}}}".getBytes(), Stage.class);
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertTrue(e.getMessage(), e.getMessage().endsWith("Expected array index 0..1:2147483647"));
+    }
+  }
+
+  public void testJSONPath() {
+    File file  = new File("src/test/resources/calcOffset-model.json");
+    JSONResult result = new FireREST().getJSON(file);
+
+    JSONPath dx = JSONPath.compile("calcOffset-stage.channels.0.dx");
+    assertEquals((Integer) 14, dx.eval(result).getInt());
+    assertEquals((Integer) 736, JSONPath.compile("calcOffset-stage.rects.1.width").eval(result).getInt());
+    assertEquals((Integer) 255, JSONPath.compile("calcOffset-stage.rects.4.color.0").eval(result).getInt());
+    assertTrue(JSONPath.compile("calcOffset-stage.rects.9.width").eval(result).isNull());
+    assertTrue(JSONPath.compile("calcOffset-stage.nosuchthing.dx").eval(result).isNull());
+    assertEquals(result, JSONPath.compile("").eval(result));
+
+    JSONPathSet paths = JSONPathSet.compile(
+      "calcOffset-stage.channels.0.dx",
+      "calcOffset-stage.channels.1.match",
+      "calcOffset-stage.rects.0.x",
+      "calcOffset-stage.rects.1.width",
+      "calcOffset-stage.channels.0.dx",
+      "s2.nosuchthing");
+    JSONResult[] values = paths.eval(result);
+    assertEquals(6, values.length);
+    assertEquals((Integer) 14, values[0].getInt());
+    assertEquals("0.984594", values[1].getString());
+    assertEquals((Integer) 400, values[2].getInt());
+    assertEquals((Integer) 736, values[3].getInt());
+    assertEquals((Integer) 14, values[4].getInt());
+    assertTrue(values[5].isNull());
+  }
+
   public void testCalcOffset_notfound() {
     File file  = new File("src/test/resources/calcOffset-notfound.json");
     JSONResult result = new FireREST().getJSON(file);
@@ -113,6 +201,21 @@ public class TestFireREST extends TestCase {
     ImageIO.write(image, "jpg", new File("target/noimage.jpg"));
   }
 
+  public void testErrorImageCache() throws Exception {
+    ErrorImageCache cache = new ErrorImageCache(800 * 200 * 2);
+    BufferedImage image1 = cache.render(800, 200, "Sat Oct 18 04:34:24 UTC 2026", "500ms TIMEOUT");
+    BufferedImage image2 = cache.render(800, 200, "Sat Oct 18 04:34:25 UTC 2026", "500ms TIMEOUT");
+    assertNotSame(image1, image2);
+    assertEquals(1, cache.size());
+    assertEquals(image1.getRGB(790, 190), image2.getRGB(790, 190));
+    cache.render(800, 200, null, "(No image)");
+    cache.render(640, 480, null, "(No image)"); // evicts eldest renderings to stay within bound
+    assertEquals(1, cache.size());
+
+    FireREST firerest = new FireREST();
+    assertNotSame(firerest.errorImage("(No Image)"), firerest.errorImage("(No Image)"));
+  }
+
   public void test_getImage() throws Exception {
     FireREST firerest = new FireREST();
     BufferedImage imageGood = firerest.getImage(new URL("http://firepick1.github.io/firerest/cv/1/monitor.jpg"));
@@ -141,8 +244,116 @@ public class TestFireREST extends TestCase {
     assertEquals("2", new JSONResult("{\"1\":2}").get("1").toString());
     assertEquals("2", new JSONResult("{\"1\":2}").get("1").getString());
     assertEquals("2", new JSONResult("{\"1\":2}").get(1).getString());
+    assertEquals(new JSONResult("{\"a\":[1,2]}"), JSONResult.parse(new StringReader("{\"a\":\n[1,\n2]}")));
     assertEquals("null", new JSONResult(null).toString());
     assertEquals(null, new JSONResult(null).getString());
   }
 
+  public void testPrimitiveAccessors() {
+    File file  = new File("src/test/resources/calcOffset-model.json");
+    JSONResult stage = new FireREST().getJSON(file).get("calcOffset-stage");
+
+    assertEquals(14, stage.get("channels").get("0").get("dx").getAsInt(-1));
+    assertEquals(-1, stage.get("channels").get("0").get("nodx").getAsInt(-1));
+    assertEquals(0.978238d, stage.get("channels").get("0").get("match").getAsDouble(0), 0);
+
+    int[] color = new int[4];
+    assertEquals(3, stage.get("rects").get(4).get("color").toIntArray(color));
+    assertEquals(255, color[0]);
+    assertEquals(255, color[2]);
+    assertEquals(0, stage.get("rects").get(0).get("color").toIntArray(color));
+    assertEquals(2, new JSONResult("{\"roi\":[350,50.5,100,100]}").get("roi").toDoubleArray(new double[2]));
+    assertEquals(4, new JSONResult("{\"roi\":[350,50,100,100]}").get("roi").toIntArray().length);
+
+    double[][] rects = new double[8][5];
+    assertEquals(5, stage.get("rects").toDoubleMatrix(rects, "x", "y", "width", "height", "angle"));
+    assertEquals(400d, rects[0][0], 0);
+    assertEquals(736d, rects[1][2], 0);
+    double[][] channels = stage.get("channels").toDoubleMatrix("dx", "match", "missing");
+    assertEquals(3, channels.length);
+    assertEquals(0.976005d, channels[2][1], 0);
+    assertTrue(Double.isNaN(channels[2][2]));
+
+    JSONResult strings = new JSONResult("{\"a\":[\"7\",\"1.5\"],\"o\":{\"x\":1,\"y\":2}}");
+    assertEquals(7, strings.get("a").get(0).getAsInt(0));
+    try {
+      strings.get("a").get(1).getAsInt(0);
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertEquals("Expected integer:1.5", e.getMessage());
+    }
+    try {
+      strings.get("a").toIntArray(new int[2]);
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertEquals("Expected integer:1.5", e.getMessage());
+    }
+    try {
+      strings.get("o").toDoubleArray(new double[2]);
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertTrue(e.getMessage().startsWith("Expected array or object with keys 0..1:"));
+    }
+  }
+
+  public void testStructuralEquals() {
+    File file  = new File("src/test/resources/calcOffset-model.json");
+    JSONResult model1 = new FireREST().getJSON(file);
+    JSONResult model2 = new FireREST().getJSON(file);
+    assertEquals(model1, model2);
+    assertEquals(model1.hashCode(), model2.hashCode());
+    assertEquals(model1.get("calcOffset-stage").get("rects"), model2.get("calcOffset-stage").get("rects"));
+    assertFalse(model1.get("calcOffset-stage").equals(model2.get("s2")));
+    assertFalse(new JSONResult("{\"a\":[1,2]}").equals(new JSONResult("{\"a\":[2,1]}")));
+    assertFalse(new JSONResult("{\"a\":1}").equals(new JSONResult("{\"a\":1.0}")));
+    assertEquals(0, new JSONResult(null).hashCode());
+    Object plain = org.json.simple.JSONValue.parse("[1,2]"); // not parsed by JSONResult
+    JSONResult parsed = new JSONResult("{\"a\":[1,2]}").get("a");
+    assertEquals(parsed, new JSONResult(plain));
+    assertEquals(new JSONResult(plain), parsed);
+    assertEquals(plain.hashCode(), parsed.hashCode());
+
+    HashSet<JSONResult> frames = new HashSet<JSONResult>();
+    frames.add(model1);
+    frames.add(model2);
+    frames.add(new JSONResult("{}"));
+    assertEquals(2, frames.size());
+  }
+
+  public void testCheapExceptions() {
+    StringBuilder big = new StringBuilder("{\"a\":[0");
+    for (int i = 1; i < 10000; i++) {
+      big.append(",").append(i);
+    }
+    JSONResult array = new JSONResult(big.append("]}").toString()).get("a");
+    try {
+      array.get("x");
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertTrue(e.getMessage().startsWith("Excpected JSONObject x:[0,1,2"));
+      assertTrue(e.getMessage().length() <= FireRESTException.MAX_MESSAGE);
+    }
+    try {
+      new JSONResult(big.append("garbage").toString());
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertTrue(e.getMessage().startsWith("Could not parse: {\"a\":[0,1"));
+      assertTrue(e.getMessage().endsWith("..."));
+    }
+    try {
+      new JSONResult("{\"n\":true}").get("n").getInt();
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertEquals("Expected integer:true", e.getMessage());
+    }
+
+    FireRESTException.setStackTraces(false);
+    try {
+      assertEquals(0, new FireRESTException("cheap").getStackTrace().length);
+    } finally {
+      FireRESTException.setStackTraces(true);
+    }
+    assertTrue(new FireRESTException("traced").getStackTrace().length > 0);
+  }
+
 }
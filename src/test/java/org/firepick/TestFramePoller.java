@@ -0,0 +1,72 @@
+package org.firepick;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// The following imports are required to run test content
+import java.io.*;
+import java.net.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestFramePoller extends TestCase {
+  private HttpServer server;
+  private URL imageUrl;
+
+  public TestFramePoller( String testName ) {
+    super( testName );
+  }
+
+  public static Test suite() {
+    return new TestSuite( TestFramePoller.class );
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "png", png);
+    final byte[] body = png.toByteArray();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/camera.png", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.start();
+    imageUrl = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/camera.png");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop(0);
+  }
+
+  public void testPoll() throws Exception {
+    FramePoller poller = new FramePoller(new FireREST().withTimeout(1000));
+    assertEquals(-1, poller.getFrameAge(imageUrl));
+    LIFOCache<BufferedImage> cache = poller.start(imageUrl, 50);
+    assertTrue(poller.isPolling(imageUrl));
+    assertSame(cache, poller.start(imageUrl, 100));
+    assertSame(cache, poller.getCache(imageUrl));
+    for (int i = 0; i < 100 && poller.getFPS(imageUrl) == 0; i++) {
+      Thread.sleep(20);
+    }
+    assertTrue(poller.getFPS(imageUrl) > 0);
+    assertTrue(poller.getFrameAge(imageUrl) >= 0);
+    assertTrue(cache.isFresh());
+    assertEquals(64, cache.get().getWidth());
+
+    poller.stop(imageUrl);
+    assertFalse(poller.isPolling(imageUrl));
+    assertNull(poller.getCache(imageUrl));
+    poller.stopAll();
+  }
+
+}
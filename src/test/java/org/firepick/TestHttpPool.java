@@ -0,0 +1,457 @@
+package org.firepick;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// The following imports are required to run test content
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.awt.image.BufferedImage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+public class TestHttpPool extends TestCase {
+  private HttpServer server;
+  private String baseUrl;
+  private volatile int etagDownloads;
+  private final java.util.concurrent.atomic.AtomicInteger flakyRequests = new java.util.concurrent.atomic.AtomicInteger();
+  private final java.util.concurrent.atomic.AtomicInteger active = new java.util.concurrent.atomic.AtomicInteger();
+  private final java.util.concurrent.atomic.AtomicInteger maxActive = new java.util.concurrent.atomic.AtomicInteger();
+
+  private final HttpHandler busy = new HttpHandler() {
+    public void handle(HttpExchange exchange) throws IOException {
+      int n = active.incrementAndGet();
+      while (n > maxActive.get() && !maxActive.compareAndSet(maxActive.get(), n)) {
+        // retry
+      }
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        // ignore
+      }
+      active.decrementAndGet();
+      byte[] body = "{\"busy\":1}".getBytes("UTF-8");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  };
+
+  public TestHttpPool( String testName ) {
+    super( testName );
+  }
+
+  public static Test suite() {
+    return new TestSuite( TestHttpPool.class );
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/fixed", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = "{\"fixed\":1}".getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.createContext("/chunked", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (int i = 0; i < 100; i++) {
+          out.write("0123456789".getBytes("UTF-8"));
+          out.flush();
+        }
+        exchange.close();
+      }
+    });
+    server.createContext("/latin1", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = "{\n\"greeting\":\n\"Gr\u00fc\u00dfe\"\n}".getBytes("ISO-8859-1");
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=ISO-8859-1");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.createContext("/etag", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          exchange.sendResponseHeaders(304, -1);
+        } else {
+          etagDownloads++;
+          byte[] body = "{\"version\":1}".getBytes("UTF-8");
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+      }
+    });
+    server.createContext("/slow", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          Thread.sleep(2000);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+      }
+    });
+    server.createContext("/redirect", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Location", "/slow");
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+      }
+    });
+    server.createContext("/flaky", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        if (flakyRequests.incrementAndGet() % 2 == 1) {
+          try {
+            Thread.sleep(1500); // every other request stalls
+          } catch (InterruptedException e) {
+            // ignore
+          }
+        }
+        byte[] body = "{\"flaky\":1}".getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.createContext("/busy", busy);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop(0);
+  }
+
+  public void testReuse() throws Exception {
+    HttpPool pool = new HttpPool(2, 10000);
+    for (int i = 0; i < 5; i++) {
+      HttpResponse response = pool.get(new URL(baseUrl + "/fixed"), 1000);
+      assertEquals(200, response.getStatus());
+      assertEquals("{\"fixed\":1}", IOUtils.toString(response.getInputStream(), "UTF-8"));
+      response.close();
+    }
+    assertEquals(1, pool.getMisses());
+    assertEquals(4, pool.getHits());
+    assertEquals(1, pool.getIdleCount());
+  }
+
+  public void testChunkedDrainOnClose() throws Exception {
+    HttpPool pool = new HttpPool(2, 10000);
+    HttpResponse response = pool.get(new URL(baseUrl + "/chunked"), 1000);
+    assertEquals('0', response.getInputStream().read());
+    response.close(); // unread body is drained so connection can be reused
+    response = pool.get(new URL(baseUrl + "/chunked"), 1000);
+    assertEquals(1000, IOUtils.toByteArray(response.getInputStream()).length);
+    response.close();
+    assertEquals(1, pool.getMisses());
+    assertEquals(1, pool.getHits());
+  }
+
+  public void testIdleEviction() throws Exception {
+    HttpPool pool = new HttpPool(2, 0);
+    HttpResponse response = pool.get(new URL(baseUrl + "/fixed"), 1000);
+    response.close();
+    assertEquals(1, pool.getIdleCount());
+    Thread.sleep(5);
+    pool.evictIdle();
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(1, pool.getEvictions());
+  }
+
+  public void testNotFound() throws Exception {
+    HttpPool pool = new HttpPool();
+    HttpResponse response = pool.get(new URL(baseUrl + "/nosuchthing"), 1000);
+    assertEquals(404, response.getStatus());
+    try {
+      response.getInputStream();
+      fail("expected FileNotFoundException");
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+    response.close();
+  }
+
+  public void testFireREST() throws Exception {
+    HttpPool pool = new HttpPool();
+    FireREST firerest = new FireREST().withHttpPool(pool).withTimeout(1000);
+    assertEquals((Integer) 1, firerest.getJSON(new URL(baseUrl + "/fixed")).get("fixed").getInt());
+    assertEquals((Integer) 1, firerest.getJSON(new URL(baseUrl + "/fixed")).get("fixed").getInt());
+    assertEquals(1, pool.getHits());
+  }
+
+  public void testResponseCharset() throws Exception {
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withTimeout(1000);
+    assertEquals("Gr\u00fc\u00dfe", firerest.getJSON(new URL(baseUrl + "/latin1")).get("greeting").getString());
+  }
+
+  public void testJSONCache() throws Exception {
+    JSONCache cache = new JSONCache(2);
+    HttpPool pool = new HttpPool();
+    FireREST firerest = new FireREST().withHttpPool(pool).withJSONCache(cache).withTimeout(1000);
+    URL url = new URL(baseUrl + "/etag");
+    JSONResult first = firerest.getJSON(url);
+    JSONResult second = firerest.getJSON(url);
+    assertSame(first, second);
+    assertEquals((Integer) 1, second.get("version").getInt());
+    assertEquals(1, etagDownloads);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getStores());
+    assertEquals(1, pool.getHits()); // 304 leaves connection reusable
+
+    firerest.getJSON(new URL(baseUrl + "/fixed")); // no validators
+    assertEquals(1, cache.size());
+    new FireREST().withHttpPool(pool).withJSONCache(null).getJSON(url);
+    assertEquals(2, etagDownloads);
+  }
+
+  public void testGetJSONAsync() throws Exception {
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withTimeout(1000);
+    CompletableFuture<JSONResult> future = firerest.getJSONAsync(new URL(baseUrl + "/fixed"));
+    assertEquals((Integer) 1, future.get().get("fixed").getInt());
+
+    future = firerest.getJSONAsync(new URL(baseUrl + "/nosuchthing"));
+    try {
+      future.get();
+      fail("expected FireRESTException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FireRESTException);
+    }
+  }
+
+  public void testAsyncTimeout() throws Exception {
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withTimeout(5000);
+    long msStart = System.currentTimeMillis();
+    CompletableFuture<JSONResult> json = firerest.getJSONAsync(new URL(baseUrl + "/slow"), 100);
+    CompletableFuture<BufferedImage> image = firerest.getImageAsync(new URL(baseUrl + "/slow"), 100);
+    try {
+      json.get();
+      fail("expected FireRESTException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FireRESTException);
+    }
+    assertNotNull(image.get()); // errorImage
+    assertTrue(System.currentTimeMillis() - msStart < 1500);
+  }
+
+  public void testAsyncCancel() throws Exception {
+    ExecutorService executor = FireREST.newExecutor(1, 1);
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withExecutor(executor).withTimeout(5000);
+    CompletableFuture<JSONResult> slow = firerest.getJSONAsync(new URL(baseUrl + "/slow"));
+    CompletableFuture<JSONResult> queued = firerest.getJSONAsync(new URL(baseUrl + "/fixed"));
+    CompletableFuture<JSONResult> rejected = firerest.getJSONAsync(new URL(baseUrl + "/fixed"));
+    assertTrue(rejected.isCompletedExceptionally());
+    Thread.sleep(100);
+    assertTrue(slow.cancel(true));
+    assertEquals((Integer) 1, queued.get(1000, TimeUnit.MILLISECONDS).get("fixed").getInt());
+    executor.shutdown();
+  }
+
+  public void testAbortRedirect() throws Exception {
+    final HttpPool pool = new HttpPool();
+    final HttpCall call = new HttpCall();
+    final URL url = new URL(baseUrl + "/redirect");
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          pool.get(url, 5000, null, call).close();
+        } catch (IOException e) {
+          // expected
+        }
+      }
+    });
+    long msStart = System.currentTimeMillis();
+    thread.start();
+    Thread.sleep(200);
+    call.abort();
+    thread.join(5000);
+    assertTrue(System.currentTimeMillis() - msStart < 1500); // /slow responds after 2000ms
+  }
+
+  public void testRTTEstimator() throws Exception {
+    URL url = new URL(baseUrl + "/fixed");
+    RTTEstimator rtt = new RTTEstimator(20, 2000);
+    assertEquals(2000, rtt.getTimeout(url));
+    rtt.sample(url, 10);
+    assertEquals(10.0, rtt.getSmoothedRTT(url));
+    assertEquals(30, rtt.getTimeout(url)); // srtt + 4 * rttvar
+    rtt.timeout(url);
+    assertEquals(60, rtt.getTimeout(url));
+    rtt.sample(url, 100);
+    for (int i = 0; i < 40; i++) {
+      rtt.sample(url, 1);
+    }
+    assertEquals(20, rtt.getTimeout(new URL(baseUrl + "/other"))); // same host:port, clamped to msMin
+    assertEquals(2000, rtt.getTimeout(new URL("http://127.0.0.2:1/")));
+    assertEquals(1, rtt.getPercentile(url, 0.5));
+    assertEquals(100, rtt.getPercentile(url, 1));
+    assertEquals(1, rtt.getHedgeDelay(url));
+    for (int i = 0; i < 3; i++) {
+      rtt.sample(url, 1000);
+    }
+    assertEquals(1000, rtt.getHedgeDelay(url)); // recomputed after samples
+  }
+
+  public void testAdaptiveTimeout() throws Exception {
+    RTTEstimator rtt = new RTTEstimator(50, 5000);
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withTimeout(5000).withRTTEstimator(rtt);
+    for (int i = 0; i < 20; i++) { // enough samples to outweigh a slow first request
+      firerest.getJSON(new URL(baseUrl + "/fixed"));
+    }
+    assertTrue(firerest.getTimeout(new URL(baseUrl + "/slow")) < 500);
+    long msStart = System.currentTimeMillis();
+    try {
+      firerest.getJSON(new URL(baseUrl + "/slow"));
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      assertTrue(e.getCause() instanceof SocketTimeoutException);
+    }
+    assertTrue(System.currentTimeMillis() - msStart < 1000);
+  }
+
+  public void testHedging() throws Exception {
+    RTTEstimator rtt = new RTTEstimator(1000, 5000);
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withRTTEstimator(rtt).withHedging(true);
+    URL url = new URL(baseUrl + "/flaky");
+    for (int i = 0; i < 20; i++) {
+      firerest.getJSON(new URL(baseUrl + "/fixed"));
+    }
+    flakyRequests.set(0);
+    long msStart = System.currentTimeMillis();
+    assertEquals((Integer) 1, firerest.getJSON(url).get("flaky").getInt());
+    assertTrue(System.currentTimeMillis() - msStart < 1000);
+    assertEquals(2, flakyRequests.get()); // stalled request was hedged
+
+    flakyRequests.set(0);
+    msStart = System.currentTimeMillis();
+    assertEquals((Integer) 1, firerest.getJSONAsync(url, 3000).get().get("flaky").getInt());
+    assertTrue(System.currentTimeMillis() - msStart < 1000);
+
+    flakyRequests.set(0);
+    msStart = System.currentTimeMillis();
+    firerest.getImage(url, new BufferedImage(800, 200, BufferedImage.TYPE_INT_RGB));
+    assertTrue(System.currentTimeMillis() - msStart >= 1000); // requests with a destination are not hedged
+
+    Thread.currentThread().interrupt();
+    assertNotNull(firerest.getImage(url)); // error image
+    assertTrue(Thread.interrupted());
+  }
+
+  public void testMetrics() throws Exception {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(500.5, histogram.getMean());
+    long p50 = histogram.getPercentile(0.5);
+    assertTrue("p50:" + p50, 500 <= p50 && p50 <= 500 * 1.125);
+    assertEquals(1000, histogram.getPercentile(1));
+
+    ClientMetrics metrics = new ClientMetrics();
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withTimeout(1000).withMetrics(metrics);
+    for (int i = 0; i < 3; i++) {
+      firerest.getJSON(new URL(baseUrl + "/fixed"));
+    }
+    try {
+      firerest.getJSON(new URL(baseUrl + "/nosuchthing"));
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      // expected
+    }
+    firerest.withTimeout(100).getImage(new URL(baseUrl + "/slow"));
+    assertEquals(5, metrics.getRequests());
+    assertEquals(1, metrics.getErrors());
+    assertEquals(1, metrics.getTimeouts());
+    assertEquals(1, metrics.getErrorImages());
+    assertEquals(3 * "{\"fixed\":1}".length(), metrics.getBytes());
+    assertEquals(4, metrics.getStats(MetricsListener.Operation.GET_JSON).getRequests());
+    String host = "127.0.0.1:" + server.getAddress().getPort();
+    assertEquals(3, metrics.getStats(host, "/fixed").getLatency().getCount());
+    assertEquals(Arrays.asList(host), Arrays.asList(metrics.getHosts()));
+    assertTrue(metrics.getSummary(), metrics.getSummary().contains(host + "/fixed requests:3"));
+
+    javax.management.ObjectName name = metrics.register("TestHttpPool");
+    javax.management.MBeanServer mbeans = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+    assertEquals(5L, mbeans.getAttribute(name, "Requests"));
+    mbeans.unregisterMBean(name);
+  }
+
+  public void testBatch() throws Exception {
+    FireREST firerest = new FireREST().withHttpPool(new HttpPool()).withTimeout(5000);
+    List<URL> urls = new ArrayList<URL>();
+    for (int i = 0; i < 8; i++) {
+      urls.add(new URL(baseUrl + "/busy?" + i));
+    }
+    long msStart = System.currentTimeMillis();
+    Map<URL, JSONResult> results = firerest.getJSONBatch(urls, 0, 2);
+    long msElapsed = System.currentTimeMillis() - msStart;
+    assertEquals(urls, new ArrayList<URL>(results.keySet()));
+    assertEquals((Integer) 1, results.get(urls.get(7)).get("busy").getInt());
+    assertEquals(2, maxActive.get());
+    assertTrue("elapsed:" + msElapsed, 400 <= msElapsed && msElapsed < 800 * 2);
+
+    // default executor and limits: 4 requests in flight for each of two hosts
+    HttpServer server2 = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server2.createContext("/busy", busy);
+    server2.setExecutor(Executors.newCachedThreadPool());
+    server2.start();
+    try {
+      for (int i = 0; i < 8; i++) {
+        urls.add(new URL("http://127.0.0.1:" + server2.getAddress().getPort() + "/busy?" + i));
+      }
+      maxActive.set(0);
+      results = firerest.getJSONBatch(urls, 0);
+      assertEquals(16, results.size());
+      assertTrue("maxActive:" + maxActive.get(), 4 < maxActive.get() && maxActive.get() <= 8);
+    } finally {
+      server2.stop(0);
+    }
+
+    // rejected requests are omitted without recursing once per URL
+    urls.clear();
+    for (int i = 0; i < 2000; i++) {
+      urls.add(new URL(baseUrl + "/fixed?" + i));
+    }
+    results = firerest.withExecutor(new Executor() {
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException("full");
+      }
+    }).getJSONBatch(urls, 0);
+    assertEquals(0, results.size());
+
+    urls.clear();
+    urls.add(new URL(baseUrl + "/slow"));
+    urls.add(new URL(baseUrl + "/fixed"));
+    urls.add(new URL(baseUrl + "/nosuchthing"));
+    urls.add(new URL(baseUrl + "/etag"));
+    msStart = System.currentTimeMillis();
+    results = firerest.getJSONBatch(urls, 500);
+    msElapsed = System.currentTimeMillis() - msStart;
+    assertTrue("elapsed:" + msElapsed, msElapsed < 1500);
+    assertEquals(Arrays.asList(urls.get(1), urls.get(3)), new ArrayList<URL>(results.keySet()));
+
+    Map<URL, BufferedImage> images = firerest.getImageBatch(urls.subList(0, 2), 500);
+    assertEquals(Arrays.asList(urls.get(1)), new ArrayList<URL>(images.keySet()));
+    assertEquals(firerest.getImageSize().x, images.get(urls.get(1)).getWidth()); // error image
+  }
+
+
+}
@@ -51,5 +51,104 @@ public class TestIPv4Scanner extends TestCase {
     }
   }
 
-}
+  public void testScanTCP() throws Exception {
+    ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    try {
+      long start = IPv4Scanner.asLongAddress(InetAddress.getByName("127.0.0.1"));
+      TCPScanner scanner = new TCPScanner().withPorts(server.getLocalPort(), 1).withTimeout(500).withMaxConcurrent(3);
+      long msStart = System.currentTimeMillis();
+      List<InetAddress> found = scanner.scan(start, 16);
+      assertTrue(System.currentTimeMillis() - msStart < 2000);
+      assertEquals(1, found.size());
+      assertEquals("127.0.0.1", found.get(0).getHostAddress());
+
+      Collection<InetAddress> range = IPv4Scanner.scanRangeTCP(InetAddress.getByName("127.0.0.1"), 4, 500, server.getLocalPort());
+      assertEquals(1, range.size());
+    } finally {
+      server.close();
+    }
+  }
+
+  public void testScanListener() throws Exception {
+    ServerSocket server = new ServerSocket(0); // all of 127.0.0.0/8 answers on loopback
+    try {
+      final List<InetAddress> found = new ArrayList<InetAddress>();
+      ScanListener collect = new ScanListener() {
+        public boolean found(InetAddress addr) {
+          found.add(addr);
+          return true;
+        }
+      };
+      long start = IPv4Scanner.asLongAddress(InetAddress.getByName("127.0.0.1"));
+      new TCPScanner().withPorts(server.getLocalPort()).withTimeout(500).scan(start, 8, collect);
+      assertEquals(8, found.size());
+
+      found.clear();
+      new TCPScanner().withPorts(server.getLocalPort()).withTimeout(500).scan(start, 8, ScanListener.limit(3, collect));
+      assertEquals(3, found.size());
+
+      found.clear();
+      IPv4Scanner.scanRangeTCP(InetAddress.getByName("127.0.0.1"), 8, 500, ScanListener.limit(1, collect), server.getLocalPort());
+      assertEquals(1, found.size());
+
+      found.clear();
+      IPv4Scanner.scanRange(InetAddress.getByName("127.0.0.1"), 16, 500, ScanListener.limit(2, collect));
+      assertEquals(2, found.size());
+    } finally {
+      server.close();
+    }
+  }
 
+  public void testIPv4Range() throws Exception {
+    IPv4Range range = IPv4Range.parse("10.1.2.3/20");
+    assertEquals(IPv4Scanner.asLongAddress(InetAddress.getByName("10.1.0.0")), range.getStart());
+    assertEquals(4096, range.getCount());
+    assertEquals("10.1.0.0/20", range.toString());
+    assertEquals(1, IPv4Range.parse("10.1.0.7").getCount());
+    assertEquals("10.1.0.7", IPv4Range.parse("10.1.0.7").toString());
+    assertEquals(Arrays.asList(IPv4Range.parse("10.1.0.0/20"), IPv4Range.parse("10.2.0.0/24")),
+	IPv4Range.parseList("10.1.0.0/20, 10.2.0.0/24"));
+    assertEquals(IPv4Range.parseList("10.1.0.0/23 10.2.0.0/24"),
+	IPv4Range.merge(IPv4Range.parseList("10.2.0.0/24 10.1.1.0/24 10.1.0.7 10.1.0.0/24 10.2.0.0/24")));
+    try {
+      IPv4Range.parse("10.1.0.0/4");
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      // expected
+    }
+    try {
+      IPv4Range.parse("10.1.256.0/24");
+      fail("expected FireRESTException");
+    } catch (FireRESTException e) {
+      // expected
+    }
+  }
+
+  public void testScanRanges() throws Exception {
+    ServerSocket server = new ServerSocket(0); // all of 127.0.0.0/8 answers on loopback
+    try {
+      TCPScanner scanner = new TCPScanner().withPorts(server.getLocalPort()).withTimeout(500);
+      List<InetAddress> found = scanner.scan(IPv4Range.parseList("127.0.0.8/30 127.0.0.20"));
+      assertEquals(5, found.size());
+      assertTrue(found.contains(InetAddress.getByName("127.0.0.20")));
+      assertEquals(4, scanner.scan(IPv4Range.parseList("127.0.0.8/30 127.0.0.8/31")).size()); // each host once
+
+      ClientMetrics metrics = new ClientMetrics();
+      scanner.withMetrics(metrics).scan(IPv4Range.parseList("127.0.0.8/30"));
+      assertEquals(1, metrics.getScans());
+      assertEquals(4, metrics.getScanProbes());
+      assertEquals(4, metrics.getScanHosts());
+
+      scanner = scanner.withRateLimit(100);
+      assertEquals(100, scanner.getRateLimit());
+      long msStart = System.currentTimeMillis();
+      found = scanner.scan(IPv4Range.parseList("127.0.1.0/27"));
+      long msElapsed = System.currentTimeMillis() - msStart;
+      assertEquals(32, found.size());
+      assertTrue("rate limited scan took " + msElapsed + "ms", msElapsed >= 200);
+    } finally {
+      server.close();
+    }
+  }
+
+}
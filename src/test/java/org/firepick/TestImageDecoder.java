@@ -0,0 +1,78 @@
+package org.firepick;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// The following imports are required to run test content
+import java.io.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+public class TestImageDecoder extends TestCase {
+
+  public TestImageDecoder( String testName ) {
+    super( testName );
+  }
+
+  public static Test suite() {
+    return new TestSuite( TestImageDecoder.class );
+  }
+
+  private static byte[] encode(String format) throws IOException {
+    BufferedImage image = new BufferedImage(80, 60, BufferedImage.TYPE_3BYTE_BGR);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(40, 30, 40, 30);
+    g.dispose();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, format, bytes);
+    return bytes.toByteArray();
+  }
+
+  public void testDecode() throws Exception {
+    ImageDecoder decoder = new ImageDecoder();
+    byte[] png = encode("png");
+    BufferedImage image = decoder.decode(new ByteArrayInputStream(png), "image/png", null);
+    assertEquals(80, image.getWidth());
+    assertEquals(60, image.getHeight());
+    assertEquals(0xffffff, image.getRGB(60, 45) & 0xffffff);
+
+    BufferedImage sniffed = decoder.decode(new ByteArrayInputStream(png), null, null);
+    assertEquals(80, sniffed.getWidth());
+    BufferedImage mislabeled = decoder.decode(new ByteArrayInputStream(encode("jpg")), "image/png", null);
+    assertEquals(80, mislabeled.getWidth());
+    assertNull(decoder.decode(new ByteArrayInputStream("not an image".getBytes()), "image/png", null));
+  }
+
+  public void testRegionAndSubsampling() throws Exception {
+    byte[] png = encode("png");
+    ImageDecoder roi = new ImageDecoder().withSourceRegion(new Rectangle(40, 30, 100, 100));
+    BufferedImage image = roi.decode(new ByteArrayInputStream(png), "image/png", null);
+    assertEquals(40, image.getWidth());
+    assertEquals(30, image.getHeight());
+    assertEquals(0xffffff, image.getRGB(0, 0) & 0xffffff);
+
+    ImageDecoder preview = new ImageDecoder().withSubsampling(4, 3);
+    image = preview.decode(new ByteArrayInputStream(png), "image/png", null);
+    assertEquals(20, image.getWidth());
+    assertEquals(20, image.getHeight());
+  }
+
+  public void testDestination() throws Exception {
+    byte[] png = encode("png");
+    ImageDecoder decoder = new ImageDecoder(1);
+    BufferedImage first = decoder.decode(new ByteArrayInputStream(png), "image/png", null);
+    BufferedImage second = decoder.decode(new ByteArrayInputStream(png), "image/png", first);
+    assertSame(first, second);
+
+    BufferedImage wrongSize = new BufferedImage(10, 10, first.getType());
+    assertNotSame(wrongSize, decoder.decode(new ByteArrayInputStream(png), "image/png", wrongSize));
+
+    decoder.recycle(first);
+    assertSame(first, decoder.decode(new ByteArrayInputStream(png), "image/png", null));
+    assertNotSame(first, decoder.decode(new ByteArrayInputStream(png), "image/png", null));
+  }
+
+}
@@ -7,6 +7,8 @@ import junit.framework.TestSuite;
 // The following imports are required to run test content
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class TestLIFOCache extends TestCase {
 
@@ -76,4 +78,74 @@ public class TestLIFOCache extends TestCase {
     assertEquals("two", bufString.get());
   }
 
+  public void testAwaitFresh() throws Exception {
+    final LIFOCache<String> cache = new LIFOCache<String>();
+    assertFalse(cache.awaitFresh(10, TimeUnit.MILLISECONDS));
+    Thread producer = new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        cache.post("one");
+      }
+    };
+    producer.start();
+    assertTrue(cache.awaitFresh(5, TimeUnit.SECONDS));
+    assertEquals("one", cache.get());
+    assertFalse(cache.awaitFresh(0, TimeUnit.MILLISECONDS));
+    producer.join();
+  }
+
+  public void testContention() throws Exception {
+    final LIFOCache<Integer> cache = new LIFOCache<Integer>();
+    final int nValues = 200000;
+    final int nConsumers = 4;
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final AtomicLong reads = new AtomicLong();
+    Thread[] consumers = new Thread[nConsumers];
+    for (int i = 0; i < nConsumers; i++) {
+      final boolean awaiting = i == 0;
+      consumers[i] = new Thread() {
+        public void run() {
+          int last = 0;
+          try {
+            while (last < nValues) {
+              if (awaiting) {
+                cache.awaitFresh(10, TimeUnit.MILLISECONDS); // other consumers may read the last value first
+              }
+              Integer peeked = cache.peek();
+              Integer value = cache.get();
+              if (value == null) {
+                continue;
+              }
+              if (value < last || peeked != null && peeked < last) {
+                failure.compareAndSet(null, "value went backwards: " + value + " after " + last);
+                return;
+              }
+              last = value;
+              reads.incrementAndGet();
+            }
+          } catch (InterruptedException e) {
+            failure.compareAndSet(null, e.toString());
+          }
+        }
+      };
+      consumers[i].start();
+    }
+    for (int i = 1; i <= nValues; i++) {
+      cache.post(i);
+    }
+    for (Thread consumer : consumers) {
+      consumer.join(10000);
+      assertFalse(consumer.isAlive());
+    }
+    assertNull(failure.get());
+    assertTrue(reads.get() >= nConsumers);
+    assertEquals(nValues, (int) cache.get());
+    assertFalse(cache.isFresh());
+    assertFalse(cache.isEmpty());
+  }
+
 }
@@ -7,6 +7,10 @@ import junit.framework.TestSuite;
 // The following imports are required to run test content
 import java.net.*;
 import java.util.*;
+import java.io.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 public class TestServiceResolver extends TestCase {
 
@@ -50,5 +54,226 @@ public class TestServiceResolver extends TestCase {
     }
   }
 
-}
+  public void testDiscoverPipeline() throws Exception {
+    HttpServer server;
+    try {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.2"), 8080), 0);
+    } catch (IOException e) {
+      System.out.println("testDiscoverPipeline skipped: " + e);
+      return;
+    }
+    server.createContext("/firerest/config.json", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+	byte[] body = "{\"FireREST\":{\"version\":\"0.1\"}}".getBytes("UTF-8");
+	exchange.sendResponseHeaders(200, body.length);
+	exchange.getResponseBody().write(body);
+	exchange.close();
+      }
+    });
+    server.start();
+    try {
+      final List<ServiceResolver> found = new ArrayList<ServiceResolver>();
+      ServiceResolver.discover(InetAddress.getByName("127.0.0.2"), 8, 1000, new DiscoveryListener() {
+	public void discovered(ServiceResolver resolver) {
+	  found.add(resolver);
+	}
+      });
+      assertEquals(1, found.size());
+      assertEquals("127.0.0.2", found.get(0).getAddress().getHostAddress());
+      assertEquals("0.1", found.get(0).getConfig().get("FireREST").get("version").getString());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  public void testDiscoveryCache() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+    server.createContext("/firerest/config.json", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+	byte[] body = "{\"FireREST\":{\"version\":\"0.2\"}}".getBytes("UTF-8");
+	exchange.sendResponseHeaders(200, body.length);
+	exchange.getResponseBody().write(body);
+	exchange.close();
+      }
+    });
+    server.start();
+    File file = File.createTempFile("discovery", ".json");
+    File staleFile = File.createTempFile("discovery", ".json");
+    try {
+      file.delete();
+      InetAddress localhost = InetAddress.getByName("127.0.0.1");
+      URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/firerest/config.json");
+      DiscoveryCache cache = new DiscoveryCache(file);
+      assertTrue(cache.isStale());
+      cache.seen(new ServiceResolver(localhost, url));
+      cache.save();
+
+      cache = new DiscoveryCache(file);
+      assertEquals("0.2", cache.getVersion(localhost));
+      long msStart = System.currentTimeMillis();
+      Collection<ServiceResolver> resolvers = ServiceResolver.discover(InetAddress.getByName("127.0.0.3"), 2, 500, cache);
+      assertTrue(System.currentTimeMillis() - msStart < 500);
+      assertEquals(1, resolvers.size());
+      ServiceResolver resolver = resolvers.iterator().next();
+      assertEquals(url, resolver.getURL());
+      assertEquals("0.2", resolver.getConfig().get("FireREST").get("version").getString());
+      assertEquals(1, resolver.getAttempts()); // resolved once, by background revalidation
 
+      // cache above is being revalidated in the background, so use another file
+      cache = new DiscoveryCache(staleFile);
+      cache.seen(new ServiceResolver(localhost, url));
+      cache.save();
+      resolvers = ServiceResolver.discover(InetAddress.getByName("10.255.255.3"), 1, 100, cache);
+      assertEquals(0, resolvers.size()); // cached service is in another range
+      assertEquals(1, new DiscoveryCache(staleFile).size());
+      Thread.sleep(5);
+      cache = new DiscoveryCache(staleFile).withTTL(1);
+      assertTrue(cache.isStale());
+      resolvers = ServiceResolver.discover(InetAddress.getByName("127.0.0.3"), 2, 500, cache);
+      assertEquals(0, resolvers.size()); // full sweep finds nothing
+      assertEquals(0, new DiscoveryCache(staleFile).size());
+    } finally {
+      file.delete();
+      staleFile.delete();
+      server.stop(0);
+    }
+  }
+
+  public void testConfigWatcher() throws Exception {
+    final String[] body = new String[1];
+    BufferedReader reader = new BufferedReader(new FileReader("src/test/resources/config.json"));
+    StringBuilder sb = new StringBuilder();
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      sb.append(line).append("\n");
+    }
+    reader.close();
+    body[0] = sb.toString();
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+    server.createContext("/firerest/config.json", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+	byte[] bytes = body[0].getBytes("UTF-8");
+	exchange.sendResponseHeaders(200, bytes.length);
+	exchange.getResponseBody().write(bytes);
+	exchange.close();
+      }
+    });
+    server.start();
+    final List<String> cveChanges = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> cameraChanges = Collections.synchronizedList(new ArrayList<String>());
+    try {
+      URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/firerest/config.json");
+      ConfigWatcher watcher = new ConfigWatcher(new ServiceResolver(url))
+	.watch("cv.cve_map", new ConfigListener() {
+	  public void configChanged(String path, JSONResult before, JSONResult after) {
+	    cveChanges.add(path + ":" + before + "=>" + after);
+	  }
+	})
+	.watch("cv.camera_map", new ConfigListener() {
+	  public void configChanged(String path, JSONResult before, JSONResult after) {
+	    cameraChanges.add(path);
+	  }
+	});
+      assertEquals(Arrays.asList(""), watcher.poll());
+      assertEquals(1, cveChanges.size());
+      assertTrue(cveChanges.get(0).startsWith("cv.cve_map:null=>{"));
+      assertEquals(Arrays.asList("cv.camera_map"), cameraChanges);
+      cveChanges.clear();
+      cameraChanges.clear();
+
+      assertEquals(0, watcher.poll().size());
+      body[0] = body[0].replace("\"minval\":0.7", "\"minval\":0.8");
+      assertEquals(Arrays.asList("cv.cve_map.calc-offset.firesight.0.minval"), watcher.poll());
+      assertEquals(Arrays.asList("cv.cve_map.calc-offset.firesight.0.minval:0.7=>0.8"), cveChanges);
+      assertEquals(0, cameraChanges.size());
+      cveChanges.clear();
+
+      watcher.start(10);
+      watcher.start(10); // restart replaces the polling thread
+      assertTrue(watcher.isRunning());
+      body[0] = body[0].replace("\"gray\":{ \"cve_names\":[ \"calc-offset\", \"locate-part\" ] }",
+	"\"gray\":{ \"cve_names\":[ \"calc-offset\" ] }");
+      for (int i = 0; i < 200 && cameraChanges.isEmpty(); i++) {
+	Thread.sleep(10);
+      }
+      watcher.stop();
+      assertFalse(watcher.isRunning());
+      assertEquals(Arrays.asList("cv.camera_map.1.profile_map.gray.cve_names"), cameraChanges);
+      assertEquals(0, cveChanges.size());
+
+      JSONResult config = watcher.getConfig();
+      server.stop(0);
+      try {
+	watcher.poll();
+	fail("expected FireRESTException");
+      } catch (FireRESTException e) {
+	assertSame(config, watcher.getConfig());
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  public void testHostNames() throws Exception {
+    InetAddress localhost = InetAddress.getByAddress(new byte[] {127, 0, 0, 1});
+    HostNames names = new HostNames(60000);
+    assertEquals("127.0.0.1", names.getName(localhost)); // lookup has only started
+    assertEquals(1, names.size());
+    for (int i = 0; i < 100 && "127.0.0.1".equals(names.getName(localhost)); i++) {
+      Thread.sleep(10);
+    }
+    System.out.println("HostNames 127.0.0.1 => " + names.getName(localhost));
+    assertEquals(1, names.size());
+  }
+
+  public void testRacingResolve() throws Exception {
+    final int [] slowRequests = {0};
+    HttpServer slow = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+    slow.createContext("/firerest/config.json", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+	slowRequests[0]++;
+	try {
+	  Thread.sleep(2000);
+	} catch (InterruptedException e) {
+	  // ignore
+	}
+	exchange.sendResponseHeaders(404, -1);
+	exchange.close();
+      }
+    });
+    HttpServer fast = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+    fast.createContext("/firerest/config.json", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+	byte[] body = "{\"FireREST\":{\"version\":\"0.3\"}}".getBytes("UTF-8");
+	exchange.sendResponseHeaders(200, body.length);
+	exchange.getResponseBody().write(body);
+	exchange.close();
+      }
+    });
+    ServerSocket closed = new ServerSocket(0);
+    int closedPort = closed.getLocalPort();
+    closed.close();
+    slow.start();
+    fast.start();
+    try {
+      InetAddress localhost = InetAddress.getByName("127.0.0.1");
+      int slowPort = slow.getAddress().getPort();
+      int fastPort = fast.getAddress().getPort();
+      ServiceResolver resolver = new ServiceResolver(localhost).withTimeout(5000).withPorts(slowPort, closedPort, fastPort);
+      long msStart = System.currentTimeMillis();
+      assertNotNull(resolver.getConfig());
+      assertTrue(System.currentTimeMillis() - msStart < 1500);
+      assertEquals(fastPort, resolver.getURL().getPort());
+      assertEquals("127.0.0.1", resolver.getURL().getHost()); // no reverse DNS
+      assertEquals(1, slowRequests[0]);
+
+      resolver = new ServiceResolver(localhost).withTimeout(5000).withPorts(slowPort, closedPort, fastPort);
+      assertEquals("0.3", resolver.getConfig().get("FireREST").get("version").getString());
+      assertEquals(fastPort, resolver.getURL().getPort());
+      assertEquals(1, slowRequests[0]); // remembered endpoint was tried first
+    } finally {
+      slow.stop(0);
+      fast.stop(0);
+    }
+  }
+
+}